@@ -0,0 +1,180 @@
+package main.java.benchmark;
+
+import main.java.business.catalogs.GroupIDRepository;
+import main.java.business.catalogs.QRCodeRepository;
+import main.java.business.catalogs.UserRepository;
+import main.java.business.domain.Group;
+import main.java.business.domain.PaymentRequest;
+import main.java.business.domain.User;
+import main.java.utils.Constants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible data sets for the benchmarks. Everything is generated from a fixed seed, and written
+ * under the current directory with the same relative paths the server uses, so benchmarks must run
+ * from an empty scratch directory.
+ */
+public final class BenchmarkData {
+
+    public static final long SEED = 42;
+    public static final String PASSWORD = "benchmark";
+    public static final String BENCHMARK_USER = "bench";
+
+    private static final int GROUP_EVERY = 10;
+    private static final int GROUP_SIZE = 4;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * User counts to run the catalog benchmarks with, from the benchmark.users property
+     */
+    public static int[] userCounts() {
+        String[] counts = System.getProperty("benchmark.users", "1000,10000,100000").split(",");
+        int[] result = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = Integer.parseInt(counts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Refuse to run where there's server data, which the benchmarks would overwrite
+     */
+    public static void requireScratchDirectory() {
+        for (String folder : new String[]{Constants.RESOURCES_FOLDER, Constants.LOGS_FOLDER, Constants.CERTIFICATES_FOLDER}) {
+            String[] files = new File(folder).list();
+            if (files != null && files.length > 0) {
+                throw new IllegalStateException("Error: " + folder + " is not empty. Run the benchmarks from an empty scratch directory.");
+            }
+        }
+    }
+
+    /**
+     * Create the folders and files the server would have created at startup
+     */
+    public static void createFolders() throws IOException {
+        new File(Constants.RESOURCES_FOLDER).mkdir();
+        new File(Constants.CERTIFICATES_FOLDER).mkdir();
+        new File(Constants.LOGS_FOLDER).mkdir();
+        try (FileWriter writer = new FileWriter(Constants.REQ_ID_FILENAME)) {
+            writer.write(String.valueOf(0));
+        }
+    }
+
+    /**
+     * Generate users. Every tenth user owns a group with the users that follow it, and has sent
+     * each of them a payment request.
+     *
+     * @param count - Number of users, named user0 to user[count - 1]
+     * @return the users, by id
+     */
+    public static HashMap<String, User> users(int count) {
+        return users(count, new ArrayList<>());
+    }
+
+    /**
+     * Generate users, and the groups they own
+     *
+     * @param count  - Number of users, named user0 to user[count - 1]
+     * @param groups - Receives the generated groups
+     * @return the users, by id
+     */
+    public static HashMap<String, User> users(int count, List<Group> groups) {
+        Random random = new Random(SEED);
+        HashMap<String, User> users = new HashMap<>();
+        User[] byIndex = new User[count];
+
+        for (int i = 0; i < count; i++) {
+            byIndex[i] = new User("user" + i, Constants.DEFAULT_STARTING_BALANCE + random.nextInt(1000));
+            users.put(byIndex[i].getID(), byIndex[i]);
+        }
+
+        for (int i = 0; i < count; i += GROUP_EVERY) {
+            Group group = new Group(i, byIndex[i].getID());
+            byIndex[i].addOwnedGroup(i);
+            groups.add(group);
+            for (int member = i + 1; member < i + GROUP_SIZE && member < count; member++) {
+                group.addMember(byIndex[member]);
+                byIndex[member].addPendingPayment(new PaymentRequest(member, 1 + random.nextInt(50), byIndex[i].getID()));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Write the catalogs for a generated set of users, as the server would have saved them
+     *
+     * @param count - Number of users
+     */
+    public static void saveCatalogs(int count) throws Exception {
+        UserRepository usersData = new UserRepository();
+        GroupIDRepository groupIDs = new GroupIDRepository();
+        QRCodeRepository qrCodePayments = new QRCodeRepository();
+        clearCatalogs();
+        usersData.getFromFile(PASSWORD);
+        groupIDs.getFromFile(PASSWORD);
+        qrCodePayments.getFromFile(PASSWORD);
+
+        List<Group> groups = new ArrayList<>();
+        for (User user : users(count, groups).values()) {
+            usersData.addUser(user);
+        }
+        for (Group group : groups) {
+            groupIDs.add(group);
+        }
+
+        usersData.saveToFile(PASSWORD);
+        groupIDs.saveToFile(PASSWORD);
+        qrCodePayments.saveToFile(PASSWORD);
+    }
+
+    /**
+     * Empty the saved catalogs, so they're recreated on the next load
+     */
+    public static void clearCatalogs() {
+        for (String catalog : new String[]{"users_data.txt", "groupIDs_data.txt", "QRCodes_data.txt"}) {
+            new File(Constants.RESOURCES_FOLDER + catalog).delete();
+        }
+    }
+
+    /**
+     * Signing key and certificate for the benchmarked transactions, read from a client keystore
+     */
+    public static class Signer {
+
+        private final PrivateKey privateKey;
+        private final Certificate certificate;
+
+        public Signer(String keystore, String keystorePassword) throws IOException, GeneralSecurityException {
+            try (FileInputStream kfile = new FileInputStream(keystore)) {
+                KeyStore kstore = KeyStore.getInstance("JCEKS");
+                kstore.load(kfile, keystorePassword.toCharArray());
+
+                this.privateKey = (PrivateKey) kstore.getKey(Constants.PRIVATE_KEY_PROP, keystorePassword.toCharArray());
+                this.certificate = kstore.getCertificate(Constants.PRIVATE_KEY_PROP);
+            }
+        }
+
+        public PrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public Certificate getCertificate() {
+            return certificate;
+        }
+    }
+
+}
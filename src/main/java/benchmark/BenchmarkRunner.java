@@ -0,0 +1,126 @@
+package main.java.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Minimal benchmark harness: timed warmup and measurement iterations, run on one or more threads,
+ * reporting the mean throughput and its spread. Results are consumed by a sink so the JIT can't
+ * drop the measured work.
+ */
+public final class BenchmarkRunner {
+
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmup", 3);
+    private static final int MEASUREMENT_ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+    private static final long ITERATION_MILLIS = Long.getLong("benchmark.iterationMillis", 1000);
+
+    private static volatile int sink;
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Operation under measurement
+     */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Measure an operation on the calling thread
+     *
+     * @param name      - Benchmark name, printed with the result
+     * @param operation - Operation to measure
+     */
+    public static void run(String name, Operation operation) throws Exception {
+        run(name, 1, operation);
+    }
+
+    /**
+     * Measure an operation run concurrently on several threads
+     *
+     * @param name      - Benchmark name, printed with the result
+     * @param threads   - Number of threads running the operation
+     * @param operation - Operation to measure
+     */
+    public static void run(String name, int threads, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(threads, operation);
+        }
+
+        List<Double> results = new ArrayList<>();
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            results.add(iteration(threads, operation));
+        }
+
+        double mean = results.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = results.stream().mapToDouble(r -> (r - mean) * (r - mean)).sum() / results.size();
+        System.out.printf("%-55s %3d thread(s) %,16.1f ops/s  +- %,.1f  (%,.3f us/op)%n",
+                name, threads, mean, Math.sqrt(variance), threads * 1_000_000 / mean);
+    }
+
+    /**
+     * Time a single run of an operation, for work too slow to repeat many times per second
+     *
+     * @param name      - Benchmark name, printed with the result
+     * @param operation - Operation to measure
+     */
+    public static void runOnce(String name, Operation operation) throws Exception {
+        long start = System.nanoTime();
+        consume(operation.run());
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-55s %,16.3f ms%n", name, elapsed / 1_000_000.0);
+    }
+
+    public static void consume(Object result) {
+        sink += System.identityHashCode(result);
+    }
+
+    private static double iteration(int threads, Operation operation) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        Exception[] failures = new Exception[threads];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    long count = 0;
+                    while (running.get()) {
+                        consume(operation.run());
+                        count++;
+                    }
+                    counts[worker] = count;
+                } catch (Exception e) {
+                    failures[worker] = e;
+                }
+            });
+            workers.add(thread);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(ITERATION_MILLIS);
+        running.set(false);
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            if (failures[t] != null) {
+                throw failures[t];
+            }
+            total += counts[t];
+        }
+        return total * 1_000_000_000.0 / elapsed;
+    }
+
+}
@@ -0,0 +1,29 @@
+package main.java.benchmark;
+
+/**
+ * Runs every server benchmark, for a baseline to compare performance changes against. Data sets are
+ * generated from a fixed seed, so runs on the same machine are comparable.
+ * <p>
+ * Run from an empty scratch directory, with a client keystore to sign transactions:
+ * java -cp out:lib/* main.java.benchmark.BenchmarkSuite aliceKeyStore 123456
+ * <p>
+ * Tune with -Dbenchmark.users=1000,10000,100000 -Dbenchmark.warmup=3 -Dbenchmark.iterations=5 -Dbenchmark.iterationMillis=1000
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Run Example: java BenchmarkSuite aliceKeyStore 123456");
+            System.exit(-1);
+        }
+        BenchmarkData.requireScratchDirectory();
+        BenchmarkData.createFolders();
+        BenchmarkData.Signer signer = new BenchmarkData.Signer(args[0], args[1]);
+
+        CatalogBenchmark.run();
+        BlockBenchmark.run(signer);
+        DispatchBenchmark.run();
+        FootprintBenchmark.run();
+    }
+
+}
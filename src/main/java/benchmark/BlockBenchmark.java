@@ -0,0 +1,47 @@
+package main.java.benchmark;
+
+import main.java.facade.startup.Block;
+import main.java.utils.CertificateCache;
+
+import java.security.Signature;
+import java.security.SignedObject;
+
+/**
+ * Transaction log: appending a signed transaction to the current block (each append is written and
+ * synced, and every fifth seals and signs the block), hashing a block and verifying its transactions.
+ * <p>
+ * Run from an empty scratch directory, with a client keystore to sign the transactions:
+ * java -cp out:lib/* main.java.benchmark.BlockBenchmark aliceKeyStore 123456
+ */
+public class BlockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("Run Example: java BlockBenchmark aliceKeyStore 123456");
+            System.exit(-1);
+        }
+        BenchmarkData.requireScratchDirectory();
+        BenchmarkData.createFolders();
+        run(new BenchmarkData.Signer(args[0], args[1]));
+    }
+
+    public static void run(BenchmarkData.Signer signer) throws Exception {
+        // Senders' keys are looked up by name, so register the signer's certificate as the benchmark user
+        CertificateCache.put(BenchmarkData.BENCHMARK_USER, signer.getCertificate());
+        SignedObject signedObject = new SignedObject("user1-10", signer.getPrivateKey(), Signature.getInstance("SHA256withRSA"));
+
+        Block log = new Block();
+        BenchmarkRunner.run("Block.addTransaction (synced, sealed every 5th)", () -> {
+            log.addTransaction(BenchmarkData.BENCHMARK_USER, "10", "user1", signedObject, signer.getPrivateKey());
+            return log;
+        });
+
+        Block full = new Block();
+        for (int i = 0; i < 5; i++) {
+            full.appendTransaction(BenchmarkData.BENCHMARK_USER, "10", "user1", signedObject, BenchmarkData.SEED + i);
+        }
+        BenchmarkRunner.run("Block.calculateHash (5 transactions)", full::calculateHash);
+        BenchmarkRunner.run("Block.allTransactionsValid (5 transactions)", full::allTransactionsValid);
+    }
+
+}
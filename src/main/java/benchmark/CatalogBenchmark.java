@@ -0,0 +1,71 @@
+package main.java.benchmark;
+
+import main.java.business.catalogs.CatalogUtils;
+import main.java.business.catalogs.GroupIDRepository;
+import main.java.business.catalogs.QRCodeRepository;
+import main.java.business.catalogs.UserRepository;
+import main.java.business.domain.User;
+import main.java.facade.startup.MoneyExchangeApp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+/**
+ * Catalog persistence: encrypting and decrypting the users map, and the full reload and save
+ * of all catalogs the server does around every command, for each configured number of users.
+ * <p>
+ * Run from an empty scratch directory: java -cp out:lib/* main.java.benchmark.CatalogBenchmark
+ */
+public class CatalogBenchmark {
+
+    private static final String PARAM_NAME = "benchmark.param";
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkData.requireScratchDirectory();
+        BenchmarkData.createFolders();
+        run();
+    }
+
+    public static void run() throws Exception {
+        for (int count : BenchmarkData.userCounts()) {
+            HashMap<String, User> users = BenchmarkData.users(count);
+
+            BenchmarkRunner.run(String.format("CatalogUtils.encryptAndSaveData (%,d users)", count), () -> {
+                ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream());
+                CatalogUtils.encryptAndSaveData(BenchmarkData.PASSWORD, users, out, PARAM_NAME);
+                return out;
+            });
+
+            ByteArrayOutputStream saved = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(saved)) {
+                CatalogUtils.encryptAndSaveData(BenchmarkData.PASSWORD, users, out, PARAM_NAME);
+            }
+            byte[] encrypted = saved.toByteArray();
+            BenchmarkRunner.run(String.format("CatalogUtils.getDecryptedData (%,d users)", count), () ->
+                    CatalogUtils.getDecryptedData(BenchmarkData.PASSWORD, new ObjectInputStream(new ByteArrayInputStream(encrypted)), PARAM_NAME));
+
+            BenchmarkData.saveCatalogs(count);
+            UserRepository usersData = new UserRepository();
+            GroupIDRepository groupIDs = new GroupIDRepository();
+            QRCodeRepository qrCodePayments = new QRCodeRepository();
+            usersData.getFromFile(BenchmarkData.PASSWORD);
+            groupIDs.getFromFile(BenchmarkData.PASSWORD);
+            qrCodePayments.getFromFile(BenchmarkData.PASSWORD);
+            MoneyExchangeApp app = new MoneyExchangeApp("user0", usersData, groupIDs, qrCodePayments, 0);
+
+            BenchmarkRunner.run(String.format("MoneyExchangeApp.update (%,d users)", count), () -> {
+                app.update(BenchmarkData.PASSWORD);
+                return app;
+            });
+            BenchmarkRunner.run(String.format("MoneyExchangeApp.save (%,d users)", count), () -> {
+                app.save(BenchmarkData.PASSWORD);
+                return app;
+            });
+        }
+        BenchmarkData.clearCatalogs();
+    }
+
+}
@@ -0,0 +1,58 @@
+package main.java.benchmark;
+
+import main.java.business.catalogs.GroupIDRepository;
+import main.java.business.catalogs.QRCodeRepository;
+import main.java.business.catalogs.UserRepository;
+import main.java.business.domain.QRCodePayment;
+import main.java.facade.startup.MoneyExchangeApp;
+import main.java.server.MoneyExchangeServer;
+import main.java.utils.Command;
+
+/**
+ * Command handling: creating a QR code payment, parsing a command line, and dispatching each kind of command through the
+ * server, including the catalog reload it does first for writes. Runs with the smallest configured number of users.
+ * <p>
+ * Run from an empty scratch directory: java -cp out:lib/* main.java.benchmark.DispatchBenchmark
+ */
+public class DispatchBenchmark {
+
+    // QR code images are written per id, so keep reusing a bounded range of ids
+    private static final int QR_CODE_IDS = 1000;
+
+    private static final String[] COMMANDS = {
+            "b", "v", "g", "s 0", "h 0", "m user1 1", "r user1 1", "p 1", "n 1", "a user5 0", "unknown"
+    };
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkData.requireScratchDirectory();
+        BenchmarkData.createFolders();
+        run();
+    }
+
+    public static void run() throws Exception {
+        int[] qrCodeID = new int[1];
+        BenchmarkRunner.run("new QRCodePayment", () -> new QRCodePayment(qrCodeID[0]++ % QR_CODE_IDS, 10, "user0"));
+
+        BenchmarkRunner.run("Command.parse \"m user1 1.50\"", () -> Command.parse("m user1 1.50"));
+
+        int count = BenchmarkData.userCounts()[0];
+        BenchmarkData.saveCatalogs(count);
+
+        MoneyExchangeServer server = new MoneyExchangeServer();
+        UserRepository usersData = new UserRepository();
+        GroupIDRepository groupIDs = new GroupIDRepository();
+        QRCodeRepository qrCodePayments = new QRCodeRepository();
+        usersData.getFromFile(BenchmarkData.PASSWORD);
+        groupIDs.getFromFile(BenchmarkData.PASSWORD);
+        qrCodePayments.getFromFile(BenchmarkData.PASSWORD);
+        MoneyExchangeApp app = new MoneyExchangeApp("user0", usersData, groupIDs, qrCodePayments, 0);
+
+        // Commands aren't saved, so every run starts from the same catalogs
+        for (String command : COMMANDS) {
+            BenchmarkRunner.run(String.format("MoneyExchangeServer.action \"%s\" (%,d users)", command, count),
+                    () -> server.action(app, command, BenchmarkData.PASSWORD));
+        }
+        BenchmarkData.clearCatalogs();
+    }
+
+}
@@ -0,0 +1,123 @@
+package main.java.benchmark;
+
+import main.java.business.domain.PaymentRequest;
+import main.java.utils.IntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Memory footprint of the id-keyed maps in the domain model: a boxed HashMap against an IntHashMap
+ * holding the same payment requests, as retained heap and serialized size per entry, and the
+ * lookup throughput of both. Sizes go from a handful of requests to a large backlog.
+ * <p>
+ * Run with a fixed heap for stable numbers: java -Xms1g -Xmx1g -cp out:lib/* main.java.benchmark.FootprintBenchmark
+ */
+public class FootprintBenchmark {
+
+    private static final int[] SIZES = {10, 1_000, 100_000};
+
+    public static void main(String[] args) throws Exception {
+        run();
+    }
+
+    public static void run() throws Exception {
+        for (int size : SIZES) {
+            // Values are shared by both maps, so only the map structure is measured
+            PaymentRequest[] requests = new PaymentRequest[size];
+            int[] ids = new int[size];
+            Random random = new Random(BenchmarkData.SEED);
+            for (int i = 0; i < size; i++) {
+                // Ids are global, so a user's requests are spread out
+                ids[i] = i * 7 + random.nextInt(7);
+                requests[i] = new PaymentRequest(ids[i], 1 + random.nextInt(5000), BenchmarkData.BENCHMARK_USER);
+            }
+
+            // Many maps per measurement, so small maps still register on the heap
+            int copies = Math.max(1, 1_000_000 / size);
+
+            long before = usedMemory();
+            Object[] boxed = new Object[copies];
+            for (int c = 0; c < copies; c++) {
+                HashMap<Integer, PaymentRequest> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(ids[i], requests[i]);
+                }
+                boxed[c] = map;
+            }
+            long boxedBytes = usedMemory() - before;
+            BenchmarkRunner.consume(boxed);
+            boxed = null;
+
+            before = usedMemory();
+            Object[] primitive = new Object[copies];
+            for (int c = 0; c < copies; c++) {
+                IntHashMap<PaymentRequest> map = new IntHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(ids[i], requests[i]);
+                }
+                primitive[c] = map;
+            }
+            long primitiveBytes = usedMemory() - before;
+            BenchmarkRunner.consume(primitive);
+            primitive = null;
+
+            long entries = (long) copies * size;
+            System.out.printf("%-55s %,16.1f bytes/entry%n", String.format("HashMap<Integer> heap (%,d entries)", size), (double) boxedBytes / entries);
+            System.out.printf("%-55s %,16.1f bytes/entry%n", String.format("IntHashMap heap (%,d entries)", size), (double) primitiveBytes / entries);
+
+            HashMap<Integer, PaymentRequest> boxedMap = new HashMap<>();
+            IntHashMap<PaymentRequest> primitiveMap = new IntHashMap<>();
+            for (int i = 0; i < size; i++) {
+                boxedMap.put(ids[i], requests[i]);
+                primitiveMap.put(ids[i], requests[i]);
+            }
+            System.out.printf("%-55s %,16d bytes%n", String.format("HashMap<Integer> serialized (%,d entries)", size), serializedSize(boxedMap));
+            System.out.printf("%-55s %,16d bytes%n", String.format("IntHashMap serialized (%,d entries)", size), serializedSize(primitiveMap));
+
+            int[] lookups = new int[1024];
+            for (int i = 0; i < lookups.length; i++) {
+                lookups[i] = ids[random.nextInt(size)];
+            }
+            BenchmarkRunner.run(String.format("HashMap<Integer>.get x1024 (%,d entries)", size), () -> {
+                long sum = 0;
+                for (int id : lookups) {
+                    sum += boxedMap.get(id).getAmount();
+                }
+                return sum;
+            });
+            BenchmarkRunner.run(String.format("IntHashMap.get x1024 (%,d entries)", size), () -> {
+                long sum = 0;
+                for (int id : lookups) {
+                    sum += primitiveMap.get(id).getAmount();
+                }
+                return sum;
+            });
+        }
+    }
+
+    private static long serializedSize(Serializable map) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        return bytes.size();
+    }
+
+    // Heap in use once garbage is collected, as far as the JVM lets us force it
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+}
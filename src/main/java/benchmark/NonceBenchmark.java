@@ -0,0 +1,26 @@
+package main.java.benchmark;
+
+import main.java.server.ChallengeService;
+
+import java.util.Random;
+
+/**
+ * Compares login nonce generation: the previous per-login java.util.Random against
+ * the SecureRandom-backed ChallengeService, including the bookkeeping to redeem the nonce.
+ * <p>
+ * Run: java -cp out:lib/* main.java.benchmark.NonceBenchmark
+ */
+public class NonceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ChallengeService challenges = new ChallengeService();
+
+        BenchmarkRunner.run("new Random().nextLong()", () -> new Random().nextLong());
+        BenchmarkRunner.run("new Random().nextLong()", threads, () -> new Random().nextLong());
+
+        BenchmarkRunner.run("ChallengeService issue + redeem", () -> challenges.redeem(challenges.issue()));
+        BenchmarkRunner.run("ChallengeService issue + redeem", threads, () -> challenges.redeem(challenges.issue()));
+    }
+
+}
@@ -0,0 +1,44 @@
+package main.java.business.catalogs;
+
+/**
+ * The catalogs as of a completed write. Read commands run against the latest snapshot without
+ * taking the catalog locks, while writers change newly loaded copies and publish them as a new
+ * snapshot. Nothing in a published snapshot is changed again.
+ */
+public final class CatalogSnapshot {
+
+    private final UserRepository users;
+    private final GroupIDRepository groups;
+    private final QRCodeRepository qrCodes;
+
+    private CatalogSnapshot(UserRepository users, GroupIDRepository groups, QRCodeRepository qrCodes) {
+        this.users = users;
+        this.groups = groups;
+        this.qrCodes = qrCodes;
+    }
+
+    /**
+     * Take a snapshot of the catalogs. Callers must hold the catalog locks, so no write is half done.
+     *
+     * @param usersData      - Users catalog
+     * @param groupIDs       - Groups catalog
+     * @param qrCodePayments - QR code payments catalog
+     * @return the snapshot
+     */
+    public static CatalogSnapshot of(UserRepository usersData, GroupIDRepository groupIDs, QRCodeRepository qrCodePayments) {
+        return new CatalogSnapshot(usersData.snapshot(), groupIDs.snapshot(), qrCodePayments.snapshot());
+    }
+
+    public UserRepository getUsers() {
+        return users;
+    }
+
+    public GroupIDRepository getGroups() {
+        return groups;
+    }
+
+    public QRCodeRepository getQRCodes() {
+        return qrCodes;
+    }
+
+}
@@ -1,5 +1,8 @@
 package main.java.business.catalogs;
 
+import main.java.business.domain.Group;
+import main.java.utils.IntHashMap;
+
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
@@ -8,20 +11,61 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.ArrayList;
 
+/**
+ * Registry of every group, by id. Users only keep the ids of their groups, which are resolved here
+ */
 public class GroupIDRepository {
 
     private static final String GROUP_IDS_DATA_FILENAME = "./resources/groupIDs_data.txt";
     private static final String PARAM_NAME = "groupsID_data.param";
-    private ArrayList<Integer> groupIDs;
+    // Group id -> group
+    private IntHashMap<Group> groups;
+
+    public GroupIDRepository() {
+    }
+
+    private GroupIDRepository(IntHashMap<Group> groups) {
+        this.groups = groups;
+    }
 
     public boolean exists(int groupID) {
-        return groupIDs.contains(groupID);
+        return groups.containsKey(groupID);
+    }
+
+    public void add(Group group) {
+        groups.put(group.getID(), group);
+    }
+
+    /**
+     * Get a group
+     *
+     * @param groupID - Group id
+     * @return the group or null if it doesn't exist
+     */
+    public Group getGroup(int groupID) {
+        return groups.get(groupID);
+    }
+
+    /**
+     * Get the owner of a group
+     *
+     * @param groupID - Group id
+     * @return the owner's user id or null if the group doesn't exist
+     */
+    public String getOwner(int groupID) {
+        Group group = groups.get(groupID);
+        return group == null ? null : group.getOwnerID();
     }
 
-    public void add(int groupID) {
-        groupIDs.add(groupID);
+    /**
+     * Get a read-only view of the groups as they are now. The view keeps the current map, which is
+     * never changed again: loading replaces it, and every write loads first.
+     *
+     * @return the view, which must not be changed
+     */
+    public GroupIDRepository snapshot() {
+        return new GroupIDRepository(groups);
     }
 
     // Get data from backup file
@@ -35,7 +79,7 @@ public class GroupIDRepository {
         updateGroupDataObjectStream.reset();
 
         // Encrypt and save data
-        CatalogUtils.encryptAndSaveData(password, groupIDs, updateGroupDataObjectStream, PARAM_NAME);
+        CatalogUtils.encryptAndSaveData(password, groups, updateGroupDataObjectStream, PARAM_NAME);
 
         // Close Streams
         updateGroupDataObjectStream.flush();
@@ -56,14 +100,14 @@ public class GroupIDRepository {
                 groupIDsDataFile.createNewFile();
             }
 
-            groupIDs = new ArrayList<>();
+            groups = new IntHashMap<>();
         } else {
 
             FileInputStream groupDataFileStream = new FileInputStream(GROUP_IDS_DATA_FILENAME);
             ObjectInputStream groupDataObjectStream = new ObjectInputStream(groupDataFileStream);
 
             // Get decrypted data from file
-            groupIDs = (ArrayList<Integer>) CatalogUtils.getDecryptedData(password, groupDataObjectStream, PARAM_NAME);
+            groups = (IntHashMap<Group>) CatalogUtils.getDecryptedData(password, groupDataObjectStream, PARAM_NAME);
 
             // Close Streams
             groupDataFileStream.close();
@@ -1,6 +1,7 @@
 package main.java.business.catalogs;
 
 import main.java.business.domain.QRCodePayment;
+import main.java.utils.IntHashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -10,15 +11,22 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.HashMap;
 
 public class QRCodeRepository {
 
     private static final String QRCODES_DATA_FILENAME = "./resources/QRCodes_data.txt";
     private static final String PARAM_NAME = "QRCodes_data.param";
-    private HashMap<Integer, QRCodePayment> qrCodePayments;
+    // QR code id -> payment
+    private IntHashMap<QRCodePayment> qrCodePayments;
 
-    public QRCodePayment getQRCodePayment(Integer id) {
+    public QRCodeRepository() {
+    }
+
+    private QRCodeRepository(IntHashMap<QRCodePayment> qrCodePayments) {
+        this.qrCodePayments = qrCodePayments;
+    }
+
+    public QRCodePayment getQRCodePayment(int id) {
         return qrCodePayments.get(id);
     }
 
@@ -26,6 +34,16 @@ public class QRCodeRepository {
         qrCodePayments.put(qrCode.getId(), qrCode);
     }
 
+    /**
+     * Get a read-only view of the QR code payments as they are now. The view keeps the current map,
+     * which is never changed again: loading replaces it, and every write loads first.
+     *
+     * @return the view, which must not be changed
+     */
+    public QRCodeRepository snapshot() {
+        return new QRCodeRepository(qrCodePayments);
+    }
+
     // Get data from backup file
     public void saveToFile(String password) throws IOException, NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, InvalidKeySpecException, BadPaddingException, InvalidKeyException {
         // Save updated users data array to file
@@ -60,13 +78,13 @@ public class QRCodeRepository {
                 qrCodeDataFile.createNewFile();
             }
 
-            qrCodePayments = new HashMap<>();
+            qrCodePayments = new IntHashMap<>();
         } else {
             FileInputStream qrCodeDataFileStream = new FileInputStream(QRCODES_DATA_FILENAME);
             ObjectInputStream qrCodeDataObjectStream = new ObjectInputStream(qrCodeDataFileStream);
 
             // Get decrypted data from file
-            qrCodePayments = (HashMap<Integer, QRCodePayment>) CatalogUtils.getDecryptedData(password, qrCodeDataObjectStream, PARAM_NAME);
+            qrCodePayments = (IntHashMap<QRCodePayment>) CatalogUtils.getDecryptedData(password, qrCodeDataObjectStream, PARAM_NAME);
 
             // Close Streams
             qrCodeDataFileStream.close();
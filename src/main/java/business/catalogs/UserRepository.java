@@ -11,6 +11,9 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserRepository {
 
@@ -18,6 +21,20 @@ public class UserRepository {
     private static final String PARAM_NAME = "users_data.param";
 
     private HashMap<String, User> users;
+    // User id -> number of changes to what the user can read. Only kept in memory, as the
+    // catalogs are only ever written by this server
+    private final ConcurrentHashMap<String, Long> versions;
+    // Users changed by the write in progress, whose versions move once it's published
+    private final Set<String> changedUsers = new HashSet<>();
+
+    public UserRepository() {
+        this.versions = new ConcurrentHashMap<>();
+    }
+
+    private UserRepository(HashMap<String, User> users, ConcurrentHashMap<String, Long> versions) {
+        this.users = users;
+        this.versions = versions;
+    }
 
     public User getUser(String userID) {
         return users.get(userID);
@@ -27,6 +44,47 @@ public class UserRepository {
         users.put(user.getID(), user);
     }
 
+    /**
+     * Get the version of what a user can read: their balance, requests and groups
+     *
+     * @param userID - User id
+     * @return a number that changes whenever any of it changes
+     */
+    public long getVersion(String userID) {
+        return versions.getOrDefault(userID, 0L);
+    }
+
+    /**
+     * Record a change to what a user can read, so responses built before it aren't reused once
+     * the change is published
+     *
+     * @param userID - User id
+     */
+    public void changed(String userID) {
+        changedUsers.add(userID);
+    }
+
+    /**
+     * Move the versions of the users changed since the last call. Called after the changes are
+     * published, so a response is never cached under a version whose changes it doesn't show.
+     */
+    public void publishChanges() {
+        for (String userID : changedUsers) {
+            versions.merge(userID, 1L, Long::sum);
+        }
+        changedUsers.clear();
+    }
+
+    /**
+     * Get a read-only view of the users as they are now, sharing the versions. The view keeps the
+     * current map, which is never changed again: loading replaces it, and every write loads first.
+     *
+     * @return the view, which must not be changed
+     */
+    public UserRepository snapshot() {
+        return new UserRepository(users, versions);
+    }
+
     // Get data from backup file
     public void saveToFile(String password) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
         // Save updated users data array to file
@@ -1,33 +1,66 @@
 package main.java.business.domain;
 
+import main.java.utils.IntHashMap;
+
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.function.Function;
 
 public class Group implements Serializable {
 
     private int id;
-    private User owner;
-    private ArrayList<User> members;
-    private HashMap<Integer, GroupPayment> activePayments;
-    private HashMap<Integer, GroupPayment> finalizedPayments;
+    private String ownerID;
+    // Member user ids, in the order they were added
+    private ArrayList<String> members;
+    // Group payment id -> group payment
+    private IntHashMap<GroupPayment> activePayments;
+    private IntHashMap<GroupPayment> finalizedPayments;
 
     // Constructors
 
-    public Group(int groupID, User owner) {
+    public Group(int groupID, String ownerID) {
         this.id = groupID;
-        this.owner = owner;
+        this.ownerID = ownerID;
         this.members = new ArrayList<>();
-        this.activePayments = new HashMap<>();
-        this.finalizedPayments = new HashMap<>();
+        this.activePayments = new IntHashMap<>();
+        this.finalizedPayments = new IntHashMap<>();
     }
 
     // Methods
 
     public void addMember(User user) {
-        this.members.add(user);
+        this.members.add(user.getID());
         // Add group to users participant groups
-        user.addParticipantGroup(this);
+        user.addParticipantGroup(this.id);
+    }
+
+    /**
+     * Split a payment between the members, sending each of them a payment request
+     *
+     * @param groupPaymentID - Id of the group payment, followed by a reserved id per member
+     * @param amount         - Amount to split, in cents
+     * @param users          - Resolves a member's user id to the user
+     * @return the new group payment
+     */
+    public GroupPayment dividePayment(int groupPaymentID, long amount, Function<String, User> users) {
+        GroupPayment gp = new GroupPayment(groupPaymentID, amount, this.id, this.members);
+        addActivePayment(gp);
+        gp.dividePayment(groupPaymentID + 1, this.ownerID, users);
+        return gp;
+    }
+
+    /**
+     * Settle a member's share of an active payment, finalizing the payment once no one owes anything
+     *
+     * @param groupPaymentID - Group payment id
+     * @param memberID       - User id of the member who paid
+     * @param share          - Amount the member paid, in cents
+     */
+    public void settleShare(int groupPaymentID, String memberID, long share) {
+        GroupPayment gp = activePayments.get(groupPaymentID);
+        if (gp != null && gp.memberPaid(memberID, share)) {
+            groupPaymentFinished(gp);
+        }
     }
 
     public void groupPaymentFinished(GroupPayment gp) {
@@ -45,19 +78,19 @@ public class Group implements Serializable {
         return this.id;
     }
 
-    public User getOwner() {
-        return this.owner;
+    public String getOwnerID() {
+        return this.ownerID;
     }
 
-    public ArrayList<User> getMembers() {
+    public ArrayList<String> getMembers() {
         return this.members;
     }
 
-    public HashMap<Integer, GroupPayment> getActivePayments() {
+    public IntHashMap<GroupPayment> getActivePayments() {
         return this.activePayments;
     }
 
-    public HashMap<Integer, GroupPayment> getFinalizedPayments() {
+    public IntHashMap<GroupPayment> getFinalizedPayments() {
         return this.finalizedPayments;
     }
 
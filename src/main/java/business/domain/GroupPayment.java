@@ -1,36 +1,47 @@
 package main.java.business.domain;
 
+import main.java.utils.Money;
+
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
 public class GroupPayment implements Serializable {
 
     private int id;
-    private float totalAmount;
-    private Group group;
-
-    private ArrayList<PaymentRequest> paymentRequests;
+    // In cents
+    private long totalAmount;
+    private int groupID;
 
-    private ArrayList<User> members;
-    private ArrayList<User> owingMembers;
+    // Member user ids
+    private ArrayList<String> members;
+    // Ids of the members who haven't paid their share yet, in the order they were charged
+    private LinkedHashSet<String> owingMembers;
+    // Sum of the unpaid shares, in cents
+    private long remainingAmount;
 
     // Constructors
 
-    public GroupPayment(int id, float totalAmount, Group group, ArrayList<User> members) {
+    public GroupPayment(int id, long totalAmount, int groupID, List<String> members) {
         this.id = id;
         this.totalAmount = totalAmount;
-        this.group = group;
-        this.members = (ArrayList<User>) members.clone();
-        this.owingMembers = (ArrayList<User>) members.clone();
+        this.groupID = groupID;
+        // The group may grow later, so keep the members at the time of the payment
+        this.members = new ArrayList<>(members);
+        this.owingMembers = new LinkedHashSet<>(members.size() * 4 / 3 + 1);
+        this.remainingAmount = 0;
     }
 
     // Getters
 
-    public float getTotalAmount() {
+    public long getTotalAmount() {
         return this.totalAmount;
     }
 
-    public void setTotalAmount(float totalAmount) {
+    public void setTotalAmount(long totalAmount) {
         this.totalAmount = totalAmount;
     }
 
@@ -38,61 +49,90 @@ public class GroupPayment implements Serializable {
         return this.id;
     }
 
-    public Group getGroup() {
-        return this.group;
-    }
-
-    public void setGroup(Group group) {
-        this.group = group;
+    public int getGroupID() {
+        return this.groupID;
     }
 
     // Setters
 
-    public ArrayList<User> getOwingMembers() {
+    public Set<String> getOwingMembers() {
         return this.owingMembers;
     }
 
-    public void setOwingMembers(ArrayList<User> owingMembers) {
-        this.owingMembers = owingMembers;
+    public int getRemainingCount() {
+        return this.owingMembers.size();
+    }
+
+    public long getRemainingAmount() {
+        return this.remainingAmount;
     }
 
     public void setid(int id) {
         this.id = id;
     }
 
-    public ArrayList<User> getMembers() {
+    public ArrayList<String> getMembers() {
         return this.members;
     }
 
-    public void setMembers(ArrayList<User> members) {
+    public void setMembers(ArrayList<String> members) {
         this.members = members;
     }
 
-    public String dividePayment(int id, float amount) {
-
-        group.addActivePayment(this);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Payment of %.2f€ successfully divided between the group members!", amount));
+    /**
+     * Charge every member a share of the payment, with one payment request each
+     *
+     * @param firstRequestID - First of a reserved range of ids, one per member
+     * @param ownerID        - User id of the group owner, who receives the payments
+     * @param users          - Resolves a member's user id to the user
+     */
+    public void dividePayment(int firstRequestID, String ownerID, Function<String, User> users) {
+
+        int parts = getParts();
+
+        for (int i = 0; i < members.size(); i++) {
+            String memberID = members.get(i);
+            long dividedAmount = Money.share(totalAmount, parts, i);
+            users.apply(memberID).addPendingPayment(new PaymentRequest(firstRequestID + i, dividedAmount, ownerID, groupID, id));
+            owingMembers.add(memberID);
+            remainingAmount += dividedAmount;
+        }
+    }
 
-        float dividedAmount = amount / (this.group.getMembers().size() + 1);
+    /**
+     * Get the smallest share a member is charged
+     */
+    public long getSmallestShare() {
+        return Money.share(totalAmount, getParts(), members.size() - 1);
+    }
 
-        for (int i = 0; i < owingMembers.size(); i++) {
-            User user = owingMembers.get(i);
-            user.addPendingPayment(id + i, dividedAmount, this.group.getOwner(), this);
-            sb.append(String.format("\nSent Payment request ID: %d of %.2f€ to %s", id + i, dividedAmount, user.getID()));
-        }
+    /**
+     * Get the largest share a member is charged
+     */
+    public long getLargestShare() {
+        return Money.share(totalAmount, getParts(), 0);
+    }
 
-        return sb.toString();
+    // The owner pays a share too, the last one, so leftover cents are always charged to members
+    private int getParts() {
+        return members.size() + 1;
     }
 
     // Functions
 
-    public void removeUser(User user) {
-        this.owingMembers.remove(user);
-
-        if (this.owingMembers.isEmpty()) {
-            this.group.groupPaymentFinished(this);
+    /**
+     * Settle a member's share
+     *
+     * @param memberID - User id of the member who paid
+     * @param share    - Amount the member paid, in cents
+     * @return true if the share was owed and no one owes anything anymore
+     */
+    public boolean memberPaid(String memberID, long share) {
+        if (!this.owingMembers.remove(memberID)) {
+            return false;
         }
+        this.remainingAmount -= share;
+
+        return this.owingMembers.isEmpty();
     }
 }
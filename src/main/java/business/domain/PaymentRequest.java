@@ -4,18 +4,29 @@ import java.io.Serializable;
 
 public class PaymentRequest implements Serializable {
 
+    // Group payment id of requests that aren't part of a group payment
+    public static final int NO_GROUP_PAYMENT = -1;
+
     private int id;
-    private float amount;
-    private User creator;
-    private GroupPayment groupPayment;
+    // In cents
+    private long amount;
+    private String creatorID;
+    // Group payment the request is a share of, and the group it belongs to
+    private int groupID;
+    private int groupPaymentID;
+
+    // Constructors
 
-    // Constructor
+    public PaymentRequest(int id, long amount, String creatorID) {
+        this(id, amount, creatorID, 0, NO_GROUP_PAYMENT);
+    }
 
-    public PaymentRequest(int id, float amount, User creator, GroupPayment groupPayment) {
+    public PaymentRequest(int id, long amount, String creatorID, int groupID, int groupPaymentID) {
         this.id = id;
         this.amount = amount;
-        this.creator = creator;
-        this.groupPayment = groupPayment;
+        this.creatorID = creatorID;
+        this.groupID = groupID;
+        this.groupPaymentID = groupPaymentID;
     }
 
     // Getters
@@ -28,36 +39,36 @@ public class PaymentRequest implements Serializable {
         this.id = id;
     }
 
-    public float getAmount() {
+    public long getAmount() {
         return this.amount;
     }
 
-    public void setAmount(int amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
     // Setters
 
-    public User getCreator() {
-        return this.creator;
+    public String getCreatorID() {
+        return this.creatorID;
     }
 
-    public void setCreator(User creator) {
-        this.creator = creator;
+    public void setCreatorID(String creatorID) {
+        this.creatorID = creatorID;
     }
 
-    public GroupPayment getGroupPayment() {
-        return this.groupPayment;
+    public int getGroupID() {
+        return this.groupID;
     }
 
-    public void setGroupPayment(GroupPayment groupPayment) {
-        this.groupPayment = groupPayment;
+    public int getGroupPaymentID() {
+        return this.groupPaymentID;
     }
 
     // Functions
 
     public boolean isGroupPaymentRequest() {
-        return !(groupPayment == null);
+        return groupPaymentID != NO_GROUP_PAYMENT;
     }
 
 }
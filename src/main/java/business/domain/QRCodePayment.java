@@ -7,6 +7,7 @@ import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import main.java.utils.Log;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,10 +20,11 @@ import java.util.Map;
 public class QRCodePayment implements Serializable {
 
     private int id;
-    private float amount;
+    // In cents
+    private long amount;
     private String creatorID;
 
-    public QRCodePayment(int id, float amount, String creatorID) {
+    public QRCodePayment(int id, long amount, String creatorID) {
         this.id = id;
         this.amount = amount;
         this.creatorID = creatorID;
@@ -49,7 +51,7 @@ public class QRCodePayment implements Serializable {
         // Create the QR code and save in the specified folder as a png file
         createQRcode(data, path, charset, hashMap, 200, 200);
 
-        System.out.println("Generated QR Code for the reqID: " + data);
+        Log.debug("qrcode.created", "id", data);
     }
 
     public void createQRcode(String data, String path, String charset, Map<EncodeHintType, ErrorCorrectionLevel> hashMap,
@@ -85,7 +87,7 @@ public class QRCodePayment implements Serializable {
         this.id = id;
     }
 
-    public float getAmount() {
+    public long getAmount() {
         return this.amount;
     }
 
@@ -1,112 +1,100 @@
 package main.java.business.domain;
 
+import main.java.utils.IntHashMap;
+import main.java.utils.IntSortedSet;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class User implements Serializable {
 
     private String name;
-    private float balance;
-    private HashMap<Integer, PaymentRequest> pendingPayments;
-    private ArrayList<QRCodePayment> createdQRCodes;
-    private ArrayList<Group> ownedGroups;
-    private ArrayList<Group> participantGroups;
+    // In cents
+    private long balance;
+    // Request id -> request
+    private IntHashMap<PaymentRequest> pendingPayments;
+    // Ids of the pending requests in ascending order, so a page of them is found without scanning the map.
+    // Rebuilt from the map when read back, so the stored form is unchanged
+    private transient IntSortedSet pendingIDs;
+    // Ids of the groups, in the order the user joined them. Groups are kept by the group repository
+    private LinkedHashSet<Integer> ownedGroups;
+    private LinkedHashSet<Integer> participantGroups;
 
     // Constructors
 
-    public User(String name, float balance) {
+    public User(String name, long balance) {
         this.name = name;
         this.balance = balance;
-        this.pendingPayments = new HashMap<>();
-        this.createdQRCodes = new ArrayList<>();
-        this.ownedGroups = new ArrayList<>();
-        this.participantGroups = new ArrayList<>();
+        this.pendingPayments = new IntHashMap<>();
+        this.pendingIDs = new IntSortedSet();
+        this.ownedGroups = new LinkedHashSet<>();
+        this.participantGroups = new LinkedHashSet<>();
     }
 
-    public User(String name, float balance, HashMap<Integer, PaymentRequest> pendingPayments,
-                ArrayList<QRCodePayment> createdQRCodes, ArrayList<Group> ownedGroups, ArrayList<Group> participantGroups) {
+    public User(String name, long balance, IntHashMap<PaymentRequest> pendingPayments,
+                LinkedHashSet<Integer> ownedGroups, LinkedHashSet<Integer> participantGroups) {
         this.name = name;
         this.balance = balance;
         this.pendingPayments = pendingPayments;
-        this.createdQRCodes = createdQRCodes;
+        this.pendingIDs = new IntSortedSet(pendingPayments.keys());
         this.ownedGroups = ownedGroups;
         this.participantGroups = participantGroups;
     }
 
     // Methods
 
-    public void makePayment(User receivingUser, float amount) {
+    public void makePayment(User receivingUser, long amount) {
         this.balance -= amount;
         receivingUser.increaseBalance(amount);
     }
 
-    public void increaseBalance(float amount) {
+    public void increaseBalance(long amount) {
         this.balance += amount;
     }
 
-    public void addPendingPayment(int id, float amount, User creator, GroupPayment groupPayment) {
-        PaymentRequest newRequest = new PaymentRequest(id, amount, creator, groupPayment);
-        pendingPayments.put(id, newRequest);
+    public void addPendingPayment(PaymentRequest request) {
+        pendingPayments.put(request.getId(), request);
+        pendingIDs.add(request.getId());
     }
 
     public void removeRequest(int reqID) {
         pendingPayments.remove(reqID);
-    }
-
-    public void payRequest(int reqID) {
+        pendingIDs.remove(reqID);
+    }
+
+    /**
+     * Pay a pending request. Settling the share of a group payment is left to the caller,
+     * which can resolve the group
+     *
+     * @param reqID   - Request id
+     * @param creator - User who created the request
+     * @return the paid request
+     */
+    public PaymentRequest payRequest(int reqID, User creator) {
         PaymentRequest pr = getPendingPayment(reqID);
 
-        makePayment(pr.getCreator(), pr.getAmount());
+        makePayment(creator, pr.getAmount());
         removeRequest(reqID);
-
-        // If there is a group payment attached to the request, 
-        // eliminate the current user from the owing list
-        if (pr.isGroupPaymentRequest()) {
-            GroupPayment gp = pr.getGroupPayment();
-            gp.removeUser(this);
-        }
-
+        return pr;
     }
 
-    public void addOwnedGroup(Group group) {
-        ownedGroups.add(group);
+    public void addOwnedGroup(int groupID) {
+        ownedGroups.add(groupID);
     }
 
-    public void addParticipantGroup(Group group) {
-        participantGroups.add(group);
+    public void addParticipantGroup(int groupID) {
+        participantGroups.add(groupID);
     }
 
     public boolean isOwner(int groupID) {
-        boolean result = false;
-        for (Group group : ownedGroups) {
-            if (group.getID() == groupID) {
-                result = true;
-            }
-        }
-        return result;
+        return ownedGroups.contains(groupID);
     }
 
     public boolean inGroup(int groupID) {
-        boolean result = false;
-        for (Group group : participantGroups) {
-            if (group.getID() == groupID) {
-                result = true;
-            }
-        }
-        return result;
-    }
-
-
-    public void addMemberToParticipantGroup(User user, int groupID) {
-        Group group = user.getOwnedGroup(groupID);
-        this.participantGroups.add(group);
-    }
-
-    public void addMemberToGroup(User owner, User userToAdd, int groupID) {
-        Group group = owner.getOwnedGroup(groupID);
-        group.addMember(userToAdd);
-        userToAdd.participantGroups.add(group);
+        return participantGroups.contains(groupID);
     }
 
     // Getters
@@ -119,68 +107,57 @@ public class User implements Serializable {
         this.name = id;
     }
 
-    public float getBalance() {
+    public long getBalance() {
         return this.balance;
     }
 
-    public void setBalance(float balance) {
+    public void setBalance(long balance) {
         this.balance = balance;
     }
 
-    public HashMap<Integer, PaymentRequest> getPendingPayments() {
+    public IntHashMap<PaymentRequest> getPendingPayments() {
         return this.pendingPayments;
     }
 
-    public void setPendingPayments(HashMap<Integer, PaymentRequest> pendingPayments) {
+    public void setPendingPayments(IntHashMap<PaymentRequest> pendingPayments) {
         this.pendingPayments = pendingPayments;
+        this.pendingIDs = new IntSortedSet(pendingPayments.keys());
     }
 
-    public ArrayList<QRCodePayment> getCreatedQRCodes() {
-        return this.createdQRCodes;
-    }
-
-    public void setCreatedQRCodes(ArrayList<QRCodePayment> createdQRCodes) {
-        this.createdQRCodes = createdQRCodes;
+    /**
+     * Get the ids of the pending requests. Changed only through the user, along with the requests
+     *
+     * @return the ids, in ascending order
+     */
+    public IntSortedSet getPendingIDs() {
+        return this.pendingIDs;
     }
 
-    public ArrayList<Group> getOwnedGroups() {
+    public Set<Integer> getOwnedGroups() {
         return this.ownedGroups;
     }
 
     // Setters
 
-    public void setOwnedGroups(ArrayList<Group> ownedGroups) {
+    public void setOwnedGroups(LinkedHashSet<Integer> ownedGroups) {
         this.ownedGroups = ownedGroups;
     }
 
-    public ArrayList<Group> getParticipantGroups() {
+    public Set<Integer> getParticipantGroups() {
         return this.participantGroups;
     }
 
-    public void setParticipantGroups(ArrayList<Group> participantGroups) {
+    public void setParticipantGroups(LinkedHashSet<Integer> participantGroups) {
         this.participantGroups = participantGroups;
     }
 
-    public Group getOwnedGroup(int groupID) {
-        for (Group group : ownedGroups) {
-            if (group.getID() == groupID) {
-                return group;
-            }
-        }
-        return null;
-    }
-
-    public Group getParticipantGroup(int groupID) {
-        for (Group group : participantGroups) {
-            if (group.getID() == groupID) {
-                return group;
-            }
-        }
-        return null;
-    }
-
     public PaymentRequest getPendingPayment(int reqID) {
         return pendingPayments.get(reqID);
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pendingIDs = new IntSortedSet(pendingPayments.keys());
+    }
+
 }
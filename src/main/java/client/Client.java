@@ -1,28 +1,58 @@
 package main.java.client;
 
+import main.java.facade.exceptions.ApplicationException;
+import main.java.utils.Command;
 import main.java.utils.Constants;
+import main.java.utils.Money;
+import main.java.utils.Opcode;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.ByteBuffer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
 import java.util.Scanner;
+import java.util.function.Consumer;
 
 /**
- * Client class that connects to the Money Exchange Server
+ * Client class that connects to the Money Exchange Server. The keystore is unlocked once,
+ * when the client is created, and the private key and signature engine are reused for every
+ * signature of the session.
  */
 public class Client {
 
-    public static void main(String[] args) throws IOException {
+    private final PrivateKey privateKey;
+    private final Certificate certificate;
+    private final Signature signature;
+    // Print protocol progress, as the interactive client always did
+    private final boolean verbose;
+
+    private SSLSocket socket;
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+
+    /**
+     * Create a client, unlocking its keystore
+     *
+     * @param keystore         - Keystore filename
+     * @param keystorePassword - Keystore password
+     * @param verbose          - Whether to print protocol progress
+     */
+    public Client(String keystore, String keystorePassword, boolean verbose) throws IOException, GeneralSecurityException {
+        try (FileInputStream kfile = new FileInputStream(keystore)) {
+            KeyStore kstore = KeyStore.getInstance("JCEKS");
+            kstore.load(kfile, keystorePassword.toCharArray());
 
-        Scanner sc = new Scanner(System.in);
+            this.privateKey = (PrivateKey) kstore.getKey(Constants.PRIVATE_KEY_PROP, keystorePassword.toCharArray());
+            this.certificate = kstore.getCertificate(Constants.PRIVATE_KEY_PROP);
+        }
+        this.signature = Signature.getInstance("SHA256withRSA");
+        this.verbose = verbose;
+    }
+
+    public static void main(String[] args) throws IOException {
 
         String ip = "";
         int port = Constants.DEFAULT_PORT;
@@ -30,15 +60,19 @@ public class Client {
         String keystore = "";
         String keystorePassword = "";
         String user = "";
+        String script = null;
 
         // Correct number of args provided
-        if (args.length == 5) {
+        if (args.length == 5 || args.length == 6) {
 
             String serverAddress = args[0];
             truststore = args[1];
             keystore = args[2];
             keystorePassword = args[3];
             user = args[4].toLowerCase();
+            if (args.length == 6) {
+                script = args[5];
+            }
 
             // If port is provided
             if (serverAddress.contains(":")) {
@@ -51,124 +85,40 @@ public class Client {
 
         } else {
             System.out.println("Wrong number of parameters!");
-            System.out.println("Run Example: java Trokos 127.0.0.1:45678 truststore.server user1Keystore.client 123456 user1");
+            System.out.println("Run Example: java Trokos 127.0.0.1:45678 truststore.server user1Keystore.client 123456 user1 [script | -]");
             System.exit(-1);
         }
 
-        SSLSocket s = null;
-        ObjectOutputStream out = null;
-        ObjectInputStream in = null;
+        System.setProperty("javax.net.ssl.trustStore", truststore);
+        System.setProperty("javax.net.ssl.trustStorePassword", "123456");
 
+        Client client = null;
         try {
-            System.setProperty("javax.net.ssl.trustStore", truststore);
-            System.setProperty("javax.net.ssl.trustStorePassword", "123456");
-            SocketFactory sf = SSLSocketFactory.getDefault();
-            s = (SSLSocket) sf.createSocket(ip, port);
-
-            in = new ObjectInputStream(s.getInputStream());
-            out = new ObjectOutputStream(s.getOutputStream());
-
-            // Send user id
-            out.writeObject(user);
-
-            // Check if user is already active
-            checkStatus(in, "\n> User " + user + " is already active.");
-
-            // Check if user is registered
-            boolean exists = (boolean) in.readObject();
-            System.out.printf("%s user [%s]%n", exists ? "Signing in" : "Registering", user);
-
-            // Receive nonce from server
-            long nonce = (long) in.readObject();
-            System.out.println("Nonce received!");
-
-            // Register path
-            if (!exists) {
-                // Send nonce back
-                out.writeObject(nonce);
-                System.out.println("Nonce sent back!");
-                checkStatus(in, "\n> Nonce sent doesn't match!");
-            }
-            sendEncryptedNonce(exists, keystore, keystorePassword, nonce, out);
-            checkStatus(in, "\n> Error checking for credentials");
+            client = new Client(keystore, keystorePassword, script == null);
+            client.connect(ip, port);
+            client.login(user);
 
             // From here, user is logged in
-            displayMenu();
-
-            while (true) {
-
-                System.out.print("\nSelect An Option > ");
-                // Read command from user
-                String command = sc.nextLine().toLowerCase();
-                String[] commandParts = command.split(" ");
-                // Get command type
-                String receivingUser = "";
-                String value = "";
-                boolean validTransaction = false;
-
-                // Save receiving user and value if makepayment
-                if (isValidMakePayment(commandParts)) {
-                    validTransaction = true;
-                    // We don't know if this user exists
-                    receivingUser = commandParts[1];
-                    value = commandParts[2];
-                    // Send v to server and find payment id, so that you can then store receiving user and value
-                } else if (isValidPayRequest(commandParts)) {
-                    out.writeObject("v");
-                    String[] requests = ((String) in.readObject()).split("\n");
-
-                    for (String request : requests) {
-                        String[] requestParts = request.split(" ");
-                        // If it's our id, save
-                        if (requestParts[1].equals(commandParts[1])) {
-                            validTransaction = true;
-                            receivingUser = requestParts[8];
-                            value = requestParts[4];
-                            break;
-                        }
-                    }
-                }
-
-                // Send command
-                out.writeObject(command);
-
-                // Wait for information if command is confirmqrcode
-                if (isValidConfirmQRCode(commandParts)) {
-                    String[] qrCodeInformation = ((String) in.readObject()).split("-");
-                    if (!qrCodeInformation[0].equals("null")) {
-                        validTransaction = true;
-                        receivingUser = qrCodeInformation[0];
-                        value = qrCodeInformation[1];
-                    }
-                }
-
-                // If it's transaction and valid, sign and send
-                if (isTransaction(commandParts)) {
-
-                    if (!validTransaction) {
-                        System.out.println("Error: There was an issue with this transaction. Make sure the id or user exists!");
-                        out.writeObject("invalid");
-                    } else {
-                        out.writeObject("valid");
-                        signAndSendString(keystore, keystorePassword, receivingUser, value, out);
-                        checkStatus(in, "Error performing transaction");
-                        System.out.println("Signed [" + receivingUser + "-" + value + "]");
-                    }
-
+            if (script == null) {
+                runInteractive(client);
+            } else if (script.equals("-")) {
+                runScript(client, new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            } else {
+                try (Reader reader = new FileReader(script)) {
+                    runScript(client, reader);
                 }
+            }
+            client.close();
 
-                if (command.equals("e") || command.equals("exit"))
-                    break;
-                System.out.println("\n" + in.readObject());
+        } catch (ApplicationException e) {
+            System.out.printf("%n> %s%n", e.getMessage());
+            if (client != null) {
+                client.close();
             }
-            out.close();
-            in.close();
-            s.close();
+            System.exit(-1);
 
         } catch (InterruptedException e) {
-            out.close();
-            in.close();
-            s.close();
+            client.close();
             System.out.println("Client Killed");
             Thread.currentThread().interrupt();
 
@@ -178,127 +128,235 @@ public class Client {
 
     }
 
-    private static boolean isTransaction(String[] commandParts) throws InterruptedException {
-        String type = commandParts[0];
-        try {
-            if ((type.equals("m") || type.equals("makepayment")) && commandParts.length == 3) {
-                Integer.parseInt(commandParts[2]);
-                return true;
-            } else if ((type.equals("p") || type.equals("payrequest") || (type.equals("c") || type.equals("confirmqrode"))) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
-            }
-            return false;
-        } catch (NumberFormatException e) {
-            return false;
+    private static void runInteractive(Client client) throws Exception {
+        Scanner sc = new Scanner(System.in);
+        displayMenu();
+
+        while (true) {
+            System.out.print("\nSelect An Option > ");
+            // Read command from user
+            // Streamed chunks are printed as they arrive
+            String response = client.execute(sc.nextLine(), chunk -> System.out.print("\n" + chunk));
+            if (response == null)
+                break;
+            System.out.println("\n" + response);
         }
     }
 
-    private static boolean isValidConfirmQRCode(String[] commandParts) throws InterruptedException {
-        String type = commandParts[0];
-        try {
-            if ((type.equals("c") || type.equals("confirmqrcode")) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
-            }
-            return false;
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Run commands read from a script, one per line, without the menu. Blank lines and lines
+     * starting with '#' are skipped, and the session is ended when the script runs out.
+     */
+    private static void runScript(Client client, Reader script) throws Exception {
+        BufferedReader reader = new BufferedReader(script);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            System.out.println("> " + line);
+            String response = client.execute(line, System.out::println);
+            if (response == null)
+                return;
+            System.out.println(response);
         }
+        client.execute("exit");
     }
 
-    private static boolean isValidPayRequest(String[] commandParts) throws InterruptedException {
-        String type = commandParts[0];
-        try {
-            if ((type.equals("p") || type.equals("payrequest")) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
-            }
-            return false;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+    /**
+     * Open the connection to the server. The truststore is taken from the javax.net.ssl properties
+     *
+     * @param ip   - Server address
+     * @param port - Server port
+     */
+    public void connect(String ip, int port) throws IOException {
+        SocketFactory sf = SSLSocketFactory.getDefault();
+        socket = (SSLSocket) sf.createSocket(ip, port);
+
+        in = new ObjectInputStream(socket.getInputStream());
+        out = new ObjectOutputStream(socket.getOutputStream());
     }
 
-    private static boolean isValidMakePayment(String[] commandParts) throws InterruptedException {
-        String type = commandParts[0];
-        try {
-            if ((type.equals("m") || type.equals("makepayment")) && commandParts.length == 3) {
-                Integer.parseInt(commandParts[2]);
-                return true;
-            }
-            return false;
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Sign in, registering the user first if the server doesn't know it
+     *
+     * @param user - Username
+     */
+    public void login(String user) throws IOException, ClassNotFoundException, GeneralSecurityException, ApplicationException {
+        // Send user id
+        out.writeObject(user);
+
+        // Check if user is already active
+        checkStatus("User " + user + " is already active.");
+
+        // Check if user is registered
+        boolean exists = (boolean) in.readObject();
+        log(String.format("%s user [%s]", exists ? "Signing in" : "Registering", user));
+
+        // Receive nonce from server
+        byte[] nonce = (byte[]) in.readObject();
+        log("Nonce received!");
+
+        // Register path
+        if (!exists) {
+            // Send nonce back
+            out.writeObject(nonce);
+            log("Nonce sent back!");
+            checkStatus("Nonce sent doesn't match!");
         }
+        sendEncryptedNonce(exists, nonce);
+        checkStatus("Error checking for credentials");
     }
 
-    private static void signAndSendString(String keystore, String keystorePassword, String receivingUser, String value, ObjectOutputStream out) throws IOException, KeyStoreException, CertificateException, NoSuchAlgorithmException, UnrecoverableKeyException, InvalidKeyException, SignatureException, InterruptedException {
+    /**
+     * Run a command, signing it first if it's a transaction. A streamed response is returned
+     * whole, its chunks followed by the closing response
+     *
+     * @param command - Command, as typed by the user
+     * @return the server response, or null if the command ended the session
+     */
+    public String execute(String command) throws IOException, ClassNotFoundException, GeneralSecurityException, ApplicationException {
+        StringBuilder streamed = new StringBuilder();
+        String response = execute(command, chunk -> streamed.append(chunk).append('\n'));
+        return response == null || streamed.length() == 0 ? response : streamed.append(response).toString();
+    }
 
-        try (FileInputStream kfile = new FileInputStream(keystore)) {
-            KeyStore kstore = KeyStore.getInstance("JCEKS");
-            kstore.load(kfile, keystorePassword.toCharArray());
+    /**
+     * Run a command, signing it first if it's a transaction
+     *
+     * @param command - Command, as typed by the user
+     * @param chunks  - Receives the chunks of a streamed response, as they arrive
+     * @return the server response, or null if the command ended the session
+     */
+    public String execute(String command, Consumer<String> chunks) throws IOException, ClassNotFoundException, GeneralSecurityException, ApplicationException {
+        command = command.toLowerCase();
+        Command parsed = Command.parse(command);
+        // Get command type
+        String receivingUser = "";
+        String value = "";
+        boolean validTransaction = false;
+
+        // Save receiving user and value if makepayment
+        if (parsed.is(Opcode.MAKE_PAYMENT) && parsed.isWellFormed()) {
+            validTransaction = true;
+            // We don't know if this user exists
+            receivingUser = parsed.arg(0);
+            value = Money.format(parsed.amountArg(1));
+            // Ask for the page that starts at the request, so that you can then store receiving user and value
+        } else if (parsed.is(Opcode.PAY_REQUEST) && parsed.isWellFormed()) {
+            out.writeObject("v " + (parsed.intArg(0) - 1));
+            String[] requests = ((String) in.readObject()).split("\n");
+
+            for (String request : requests) {
+                // ["ID:", "id", "|", "Amount:", "amount", "€", "|", "Receiver:", "user"]
+                String[] requestParts = request.split(" ");
+                // If it's our id, save
+                if (requestParts.length == 9 && requestParts[0].equals("ID:") && requestParts[1].equals(parsed.arg(0))) {
+                    validTransaction = true;
+                    receivingUser = requestParts[8];
+                    value = requestParts[4];
+                    break;
+                }
+            }
+        }
 
-            // Get private key
-            PrivateKey myPrivateKey = (PrivateKey) kstore.getKey(Constants.PRIVATE_KEY_PROP, keystorePassword.toCharArray());
+        // Send command
+        out.writeObject(command);
 
-            // Create signedObject
-            SignedObject signedObject = new SignedObject(receivingUser + "-" + value, myPrivateKey, Signature.getInstance("SHA256withRSA"));
+        if (parsed.is(Opcode.EXIT) && parsed.getArgCount() == 0)
+            return null;
 
-            // Send signed input
-            out.writeObject(signedObject);
+        // Chunks come until a null, then the usual response
+        if (parsed.isStreamedViewRequests()) {
+            String chunk;
+            while ((chunk = (String) in.readObject()) != null) {
+                chunks.accept(chunk);
+            }
         }
 
-    }
+        // Wait for information if command is confirmqrcode
+        if (parsed.is(Opcode.CONFIRM_QR_CODE) && parsed.isWellFormed()) {
+            String[] qrCodeInformation = ((String) in.readObject()).split("-");
+            if (!qrCodeInformation[0].equals("null")) {
+                validTransaction = true;
+                receivingUser = qrCodeInformation[0];
+                value = qrCodeInformation[1];
+            }
+        }
 
-    private static void sendEncryptedNonce(boolean exists, String keystore, String keystorePassword, long nonce, ObjectOutputStream out) throws IOException, UnrecoverableKeyException, KeyStoreException, NoSuchAlgorithmException, CertificateException, InvalidKeyException, SignatureException, InterruptedException {
-        // Get keystore
-        try (FileInputStream kfile = new FileInputStream(keystore)) {
-            KeyStore kstore = KeyStore.getInstance("JCEKS");
-            kstore.load(kfile, keystorePassword.toCharArray());
+        // If it's transaction and valid, sign and send
+        if (parsed.isTransaction()) {
 
-            // Get private key
-            PrivateKey myPrivateKey = (PrivateKey) kstore.getKey(Constants.PRIVATE_KEY_PROP, keystorePassword.toCharArray());
-
-            // Sign nonce
-            Signature s = Signature.getInstance("SHA256withRSA");
-            s.initSign(myPrivateKey);
-            byte[] buf = longToBytes(nonce);
-            s.update(buf);
-
-            // Send signed nonce
-            out.writeObject(s.sign());
-            System.out.println("Sent signature");
-            if (!exists) {
-                Certificate cert = kstore.getCertificate(Constants.PRIVATE_KEY_PROP);
-                // Send certificate
-                out.writeObject(cert);
+            if (!validTransaction) {
+                log("Error: There was an issue with this transaction. Make sure the id or user exists!");
+                out.writeObject("invalid");
+            } else {
+                out.writeObject("valid");
+                signAndSendString(receivingUser, value);
+                checkStatus("Error performing transaction");
+                log("Signed [" + receivingUser + "-" + value + "]");
             }
+
         }
 
+        return (String) in.readObject();
     }
 
-    private static void checkStatus(ObjectInputStream in, String errorMessage) throws IOException, ClassNotFoundException, InterruptedException {
-        if (((int) in.readObject()) == -1) {
-            System.out.println(errorMessage);
-            System.exit(-1);
+    /**
+     * Close the connection, if open
+     */
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void signAndSendString(String receivingUser, String value) throws IOException, GeneralSecurityException {
+        // Create signedObject, reusing the session's signature engine
+        SignedObject signedObject = new SignedObject(receivingUser + "-" + value, privateKey, signature);
+
+        // Send signed input
+        out.writeObject(signedObject);
+    }
+
+    private void sendEncryptedNonce(boolean exists, byte[] nonce) throws IOException, GeneralSecurityException {
+        // Sign nonce
+        signature.initSign(privateKey);
+        signature.update(nonce);
+
+        // Send signed nonce
+        out.writeObject(signature.sign());
+        log("Sent signature");
+        if (!exists) {
+            // Send certificate, DER encoded
+            out.writeObject(certificate.getEncoded());
         }
     }
 
-    public static byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(x);
-        return buffer.array();
+    private void checkStatus(String errorMessage) throws IOException, ClassNotFoundException, ApplicationException {
+        int status = (int) in.readObject();
+        if (status == Constants.RETRY_STATUS) {
+            throw new ServerBusyException((long) in.readObject());
+        } else if (status == -1) {
+            throw new ApplicationException(errorMessage);
+        }
+    }
+
+    private void log(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
     }
 
     // Display options menu
-    private static void displayMenu() throws InterruptedException {
+    private static void displayMenu() {
         System.out.println("OPTIONS MENU");
         System.out.println(Constants.DELIMITER);
         System.out.println("[B]alance");
         System.out.println("[M]akePayment [userID] [amount]");
         System.out.println("[R]equest Payment [userID] [amount]");
-        System.out.println("[V]iewRequests");
+        System.out.println("[V]iewRequests [afterReqID | all]");
         System.out.println("[P]ayRequest [reqID]");
         System.out.println("[O]btainQRcode [amount]");
         System.out.println("[C]onfirmQRcode [QRcode]");
@@ -308,6 +366,9 @@ public class Client {
         System.out.println("[D]ividePayment [groupID] [amount]");
         System.out.println("[S]tatusPayments [groupID]");
         System.out.println("[H]istory [groupID]");
+        System.out.println("[L]edger [page]");
+        System.out.println("[T]xProof [blockNum] [txIndex]");
+        System.out.println("[F]indBlocks [fromDate] [toDate]");
         System.out.println(Constants.DELIMITER);
         System.out.println("[E]xit");
         System.out.println(Constants.DELIMITER);
@@ -0,0 +1,362 @@
+package main.java.client;
+
+import main.java.utils.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the Money Exchange Server. Opens a number of concurrent sessions, each as its own
+ * user with a generated keystore, and drives a weighted mix of commands against the server for a fixed
+ * time, then reports throughput and latency percentiles per command.
+ * <p>
+ * Run: java -cp out:lib/* main.java.client.LoadGenerator 127.0.0.1:45678 truststore.client 20 30 b=30,m=20,r=15,p=15,q=10,g=10
+ * <p>
+ * Mix keys: b balance, m makepayment, r requestpayment, p payrequest, q obtain and confirm QR codes,
+ * g groups (create, add members, divide payments and check their status).
+ */
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX = "b=30,m=20,r=15,p=15,q=10,g=10";
+    private static final String KEYSTORE_FOLDER = System.getProperty("loadgen.keystores", "loadgen");
+    private static final String KEYSTORE_PASSWORD = "123456";
+    private static final String USER_PREFIX = "load";
+    private static final int GROUP_MEMBERS = 3;
+    private static final int LOGIN_ATTEMPTS = 20;
+
+    private final String ip;
+    private final int port;
+    private final int sessions;
+    private final long durationMillis;
+    private final String[] mix;
+    private final int[] cumulativeWeights;
+
+    // Group ids are picked per run, so repeated runs against the same server don't collide
+    private final int groupBase;
+
+    // QR codes created and not yet confirmed: [id, creator session]
+    private final ConcurrentLinkedQueue<int[]> openQRCodes;
+
+    private final Map<String, List<Long>> latencies;
+    private final Map<String, AtomicInteger> errors;
+    private final List<Long> loginLatencies;
+    private final AtomicInteger failedSessions;
+
+    public LoadGenerator(String ip, int port, int sessions, long durationMillis, String mix) {
+        this.ip = ip;
+        this.port = port;
+        this.sessions = sessions;
+        this.durationMillis = durationMillis;
+
+        String[] entries = mix.split(",");
+        this.mix = new String[entries.length];
+        this.cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] keyWeight = entries[i].split("=");
+            this.mix[i] = keyWeight[0].trim();
+            total += Integer.parseInt(keyWeight[1].trim());
+            this.cumulativeWeights[i] = total;
+        }
+
+        this.groupBase = new Random().nextInt(Integer.MAX_VALUE / 2);
+        this.openQRCodes = new ConcurrentLinkedQueue<>();
+        this.latencies = new ConcurrentHashMap<>();
+        this.errors = new ConcurrentHashMap<>();
+        this.loginLatencies = Collections.synchronizedList(new ArrayList<>());
+        this.failedSessions = new AtomicInteger();
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Wrong number of parameters!");
+            System.out.println("Run Example: java LoadGenerator 127.0.0.1:45678 truststore.client 20 30 [" + DEFAULT_MIX + "]");
+            System.exit(-1);
+        }
+
+        String ip = args[0];
+        int port = Constants.DEFAULT_PORT;
+        // If port is provided
+        if (ip.contains(":")) {
+            String[] serverAddressSplit = ip.split(":");
+            ip = serverAddressSplit[0];
+            port = Integer.parseInt(serverAddressSplit[1]);
+        }
+
+        System.setProperty("javax.net.ssl.trustStore", args[1]);
+        System.setProperty("javax.net.ssl.trustStorePassword", "123456");
+
+        LoadGenerator generator = new LoadGenerator(ip, port, Integer.parseInt(args[2]),
+                Long.parseLong(args[3]) * 1000, args.length == 5 ? args[4] : DEFAULT_MIX);
+        generator.createKeystores();
+        generator.run();
+    }
+
+    /**
+     * Generate a keystore for each session user that doesn't have one yet, with keytool
+     */
+    public void createKeystores() throws IOException, InterruptedException {
+        File folder = new File(KEYSTORE_FOLDER);
+        folder.mkdirs();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            File keystore = keystoreFile(i);
+            if (keystore.exists()) {
+                continue;
+            }
+            String user = USER_PREFIX + i;
+            ProcessBuilder keytoolProcess = new ProcessBuilder(keytool, "-genkeypair",
+                    "-alias", Constants.PRIVATE_KEY_PROP, "-keyalg", "RSA", "-keysize", "2048",
+                    "-storetype", "JCEKS", "-keystore", keystore.getPath(),
+                    "-storepass", KEYSTORE_PASSWORD, "-keypass", KEYSTORE_PASSWORD,
+                    "-dname", "CN=" + user, "-validity", "365")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            results.add(pool.submit(() -> keytoolProcess.start().waitFor()));
+        }
+        pool.shutdown();
+
+        for (Future<Integer> result : results) {
+            try {
+                if (result.get() != 0) {
+                    throw new IOException("Error: keytool failed to generate a keystore");
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Error: Could not run keytool", e.getCause());
+            }
+        }
+        System.out.printf("Generated %d keystores in %s%n", results.size(), folder.getPath());
+    }
+
+    /**
+     * Log all sessions in, run the command mix for the configured time and print the report
+     */
+    public void run() throws InterruptedException {
+        CountDownLatch loggedIn = new CountDownLatch(sessions);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            int session = i;
+            Thread worker = new Thread(() -> runSession(session, loggedIn, start, deadline), "Load-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        loggedIn.await();
+        System.out.printf("%d sessions logged in, %d failed. Running for %d s%n",
+                sessions - failedSessions.get(), failedSessions.get(), durationMillis / 1000);
+
+        long begin = System.nanoTime();
+        deadline[0] = begin + durationMillis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        report(elapsed);
+    }
+
+    private void runSession(int session, CountDownLatch loggedIn, CountDownLatch start, long[] deadline) {
+        Client client = null;
+        try {
+            client = login(session);
+        } catch (Exception e) {
+            System.out.printf("Session %d couldn't log in: %s%n", session, e.getMessage());
+            failedSessions.incrementAndGet();
+        } finally {
+            loggedIn.countDown();
+        }
+        if (client == null) {
+            return;
+        }
+
+        Random random = new Random(session);
+        int groupMembers = -1;
+        boolean divide = true;
+
+        try {
+            start.await();
+            while (System.nanoTime() < deadline[0]) {
+                String operation = pickOperation(random);
+
+                switch (operation) {
+                    case "b":
+                        timed(client, "balance", "b");
+                        break;
+                    case "m":
+                        timed(client, "makepayment", "m " + peer(session, random) + " 1");
+                        break;
+                    case "r":
+                        timed(client, "requestpayment", "r " + peer(session, random) + " 1");
+                        break;
+                    case "p": {
+                        String requests = timed(client, "viewrequests", "v");
+                        int id = firstRequestID(requests);
+                        if (id >= 0) {
+                            timed(client, "payrequest", "p " + id);
+                        }
+                        break;
+                    }
+                    case "q": {
+                        // Confirm someone else's code if there is one, otherwise create one
+                        int[] code = openQRCodes.poll();
+                        if (code != null && code[1] != session) {
+                            timed(client, "confirmqrcode", "c " + code[0]);
+                        } else {
+                            if (code != null) {
+                                openQRCodes.add(code);
+                            }
+                            String response = timed(client, "obtainqrcode", "o 1");
+                            if (response.startsWith("QR Code ")) {
+                                openQRCodes.add(new int[]{Integer.parseInt(response.split(" ")[2]), session});
+                            }
+                        }
+                        break;
+                    }
+                    case "g": {
+                        int groupID = groupBase + session;
+                        if (groupMembers < 0) {
+                            timed(client, "newgroup", "n " + groupID);
+                            groupMembers = 0;
+                        } else if (groupMembers < Math.min(GROUP_MEMBERS, sessions - 1)) {
+                            groupMembers++;
+                            timed(client, "addu", "a " + USER_PREFIX + ((session + groupMembers) % sessions) + " " + groupID);
+                        } else if (divide) {
+                            timed(client, "dividepayment", "d " + groupID + " " + groupMembers);
+                            divide = false;
+                        } else {
+                            timed(client, "statuspayments", "s " + groupID);
+                            divide = true;
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Error: Unknown operation " + operation + " in command mix");
+                }
+            }
+            client.execute("exit");
+            client.close();
+        } catch (Exception e) {
+            System.out.printf("Session %d failed: %s%n", session, e);
+            failedSessions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Connect and log in, backing off as long as the server asks us to retry
+     */
+    private Client login(int session) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            Client client = new Client(keystoreFile(session).getPath(), KEYSTORE_PASSWORD, false);
+            long start = System.nanoTime();
+            try {
+                client.connect(ip, port);
+                client.login(USER_PREFIX + session);
+                loginLatencies.add(System.nanoTime() - start);
+                return client;
+            } catch (ServerBusyException e) {
+                client.close();
+                if (attempt == LOGIN_ATTEMPTS) {
+                    throw e;
+                }
+                Thread.sleep(e.getRetryAfter());
+            } catch (Exception e) {
+                client.close();
+                throw e;
+            }
+        }
+    }
+
+    private String timed(Client client, String name, String command) throws Exception {
+        long start = System.nanoTime();
+        String response = client.execute(command);
+        long elapsed = System.nanoTime() - start;
+
+        latencies.computeIfAbsent(name, k -> Collections.synchronizedList(new ArrayList<>())).add(elapsed);
+        if (response.startsWith("Error:")) {
+            errors.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+        }
+        return response;
+    }
+
+    private String pickOperation(Random random) {
+        int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return mix[i];
+            }
+        }
+        return mix[mix.length - 1];
+    }
+
+    private String peer(int session, Random random) {
+        if (sessions == 1) {
+            return USER_PREFIX + session;
+        }
+        int peer = random.nextInt(sessions - 1);
+        return USER_PREFIX + (peer >= session ? peer + 1 : peer);
+    }
+
+    // "Pending payments:\nID: 3 | Amount: ..." -> 3
+    private static int firstRequestID(String requests) {
+        String[] lines = requests.split("\n");
+        if (lines.length < 2) {
+            return -1;
+        }
+        return Integer.parseInt(lines[1].split(" ")[1]);
+    }
+
+    private static File keystoreFile(int session) {
+        return new File(KEYSTORE_FOLDER, USER_PREFIX + session + "KeyStore");
+    }
+
+    private void report(long elapsed) {
+        System.out.println(Constants.DELIMITER);
+        printLatencies("login", loginLatencies, 0, 0);
+
+        long total = 0;
+        List<Long> all = new ArrayList<>();
+        for (String name : new TreeSet<>(latencies.keySet())) {
+            List<Long> samples = latencies.get(name);
+            AtomicInteger failed = errors.get(name);
+            printLatencies(name, samples, elapsed, failed == null ? 0 : failed.get());
+            total += samples.size();
+            all.addAll(samples);
+        }
+        System.out.println(Constants.DELIMITER);
+        printLatencies("all", all, elapsed, errors.values().stream().mapToInt(AtomicInteger::get).sum());
+        System.out.printf("%,d commands in %.1f s: %,.1f commands/s%n", total, elapsed / 1e9, total * 1e9 / elapsed);
+    }
+
+    private static void printLatencies(String name, List<Long> samples, long elapsed, int failed) {
+        if (samples.isEmpty()) {
+            System.out.printf("%-16s no samples%n", name);
+            return;
+        }
+        long[] sorted;
+        synchronized (samples) {
+            sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        System.out.printf("%-16s n=%-8d errors=%-6d %9s  p50=%8.2f ms  p90=%8.2f ms  p99=%8.2f ms  p99.9=%8.2f ms  max=%8.2f ms%n",
+                name, sorted.length, failed,
+                elapsed == 0 ? "" : String.format("%.1f/s", sorted.length * 1e9 / elapsed),
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+}
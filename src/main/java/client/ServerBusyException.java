@@ -0,0 +1,22 @@
+package main.java.client;
+
+import main.java.facade.exceptions.ApplicationException;
+
+/**
+ * The server turned the connection away and asked the client to come back later
+ */
+public class ServerBusyException extends ApplicationException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfter;
+
+    public ServerBusyException(long retryAfter) {
+        super(String.format("Server is busy. Try again in %.1f seconds.", retryAfter / 1000.0));
+        this.retryAfter = retryAfter;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,153 @@
+package main.java.facade.startup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory index over the transaction log. Maps every user to the transactions they took part in,
+ * oldest first, and every block to the time range of its transactions.
+ * Rebuilt from the block files at startup and kept up to date by the log writer.
+ */
+public class AuditLogIndex {
+
+    private final Map<String, List<Record>> userTransactions;
+    // Time of a block's first transaction -> block numbers
+    private final TreeMap<Long, List<Long>> blocksByFirstTime;
+    // Block number -> time of its last transaction
+    private final Map<Long, Long> blockLastTime;
+
+    public AuditLogIndex() {
+        this.userTransactions = new HashMap<>();
+        this.blocksByFirstTime = new TreeMap<>();
+        this.blockLastTime = new HashMap<>();
+    }
+
+    /**
+     * Index every transaction of a block read from the log
+     *
+     * @param block - Block read from its log file
+     */
+    public synchronized void addBlock(Block block) {
+        List<String> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            // ["sender", "sent", "value€", "to", "receiver"]
+            String[] transactionParts = transactions.get(i).split(" ");
+            String value = transactionParts[2].substring(0, transactionParts[2].length() - 1);
+            add(block.getBlockNum(), i, block.getTransactionTime(i), transactionParts[0], value, transactionParts[4]);
+        }
+    }
+
+    /**
+     * Index a transaction that was just written to the log
+     */
+    public synchronized void add(long blockNum, int index, long time, String sendingUser, String value, String receivingUser) {
+        Record record = new Record(blockNum, index, time, sendingUser, value, receivingUser);
+
+        userTransactions.computeIfAbsent(sendingUser, k -> new ArrayList<>()).add(record);
+        if (!receivingUser.equals(sendingUser)) {
+            userTransactions.computeIfAbsent(receivingUser, k -> new ArrayList<>()).add(record);
+        }
+
+        if (!blockLastTime.containsKey(blockNum)) {
+            blocksByFirstTime.computeIfAbsent(time, k -> new ArrayList<>()).add(blockNum);
+        }
+        blockLastTime.put(blockNum, time);
+    }
+
+    /**
+     * Get a page of a user's transactions, newest first
+     *
+     * @param userID   - User id
+     * @param page     - Page number, starting at 1
+     * @param pageSize - Transactions per page
+     * @return the transactions on that page
+     */
+    public synchronized List<Record> getUserTransactions(String userID, int page, int pageSize) {
+        List<Record> records = userTransactions.getOrDefault(userID, Collections.emptyList());
+
+        int end = records.size() - (page - 1) * pageSize;
+        int start = Math.max(0, end - pageSize);
+
+        List<Record> result = new ArrayList<>(Math.max(0, end - start));
+        for (int i = end - 1; i >= start; i--) {
+            result.add(records.get(i));
+        }
+        return result;
+    }
+
+    public synchronized int countUserTransactions(String userID) {
+        return userTransactions.getOrDefault(userID, Collections.emptyList()).size();
+    }
+
+    /**
+     * Get the blocks holding transactions made in a time range
+     *
+     * @param from - Start of the range in milliseconds, inclusive
+     * @param to   - End of the range in milliseconds, inclusive
+     * @return the block numbers, in log order
+     */
+    public synchronized List<Long> getBlocksBetween(long from, long to) {
+        List<Long> blocks = new ArrayList<>();
+        // Blocks that started after the range can't hold any of its transactions
+        for (List<Long> startingBlocks : blocksByFirstTime.headMap(to, true).values()) {
+            for (long blockNum : startingBlocks) {
+                if (blockLastTime.get(blockNum) >= from) {
+                    blocks.add(blockNum);
+                }
+            }
+        }
+        Collections.sort(blocks);
+        return blocks;
+    }
+
+    /**
+     * A transaction and its position in the log
+     */
+    public static class Record {
+
+        private final long blockNum;
+        private final int index;
+        private final long time;
+        private final String sendingUser;
+        private final String value;
+        private final String receivingUser;
+
+        Record(long blockNum, int index, long time, String sendingUser, String value, String receivingUser) {
+            this.blockNum = blockNum;
+            this.index = index;
+            this.time = time;
+            this.sendingUser = sendingUser;
+            this.value = value;
+            this.receivingUser = receivingUser;
+        }
+
+        public long getBlockNum() {
+            return this.blockNum;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public String getSendingUser() {
+            return this.sendingUser;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        public String getReceivingUser() {
+            return this.receivingUser;
+        }
+    }
+
+}
@@ -1,22 +1,37 @@
 package main.java.facade.startup;
 
+import main.java.utils.CertificateCache;
+import main.java.utils.Log;
+import main.java.utils.SignatureVerifier;
+
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class Block implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     public byte[] hash;
     public long blockNum;
     public long transactionsNum;
     public List<String> transactions;
     public List<SignedObject> transactionSignedObjects;
+    public List<Long> transactionTimes;
     public byte[] signature;
+    public byte[] merkleRoot;
+    // Signature over the header alone, so the merkle root can be trusted without the whole block
+    public byte[] headerSignature;
 
     public Block() {
         this.hash = new byte[32];
@@ -24,6 +39,7 @@ public class Block implements Serializable {
         this.transactionsNum = 0;
         this.transactions = new ArrayList<>();
         this.transactionSignedObjects = new ArrayList<>();
+        this.transactionTimes = new ArrayList<>();
         this.signature = new byte[32];
     }
 
@@ -48,31 +64,148 @@ public class Block implements Serializable {
         return this.transactions;
     }
 
+    /**
+     * Get the time a transaction was submitted
+     *
+     * @param index - Position of the transaction in the block
+     * @return the time in milliseconds
+     */
+    public long getTransactionTime(int index) {
+        return this.transactionTimes.get(index);
+    }
+
+    public byte[] getMerkleRoot() {
+        return this.merkleRoot;
+    }
+
+    public byte[] getHeaderSignature() {
+        return this.headerSignature;
+    }
+
+    /**
+     * Get the header of a sealed block: its number, the hash of the previous block and the merkle
+     * root, as 8 bytes big endian, 32 bytes and 32 bytes
+     *
+     * @return the header bytes, as signed by the server
+     */
+    public byte[] getHeader() {
+        return ByteBuffer.allocate(Long.BYTES + this.hash.length + this.merkleRoot.length)
+                .putLong(this.blockNum)
+                .put(this.hash)
+                .put(this.merkleRoot)
+                .array();
+    }
+
+    /**
+     * Read a block from its log file
+     *
+     * @param blockNum - Number of the block
+     * @return the block or null if there's no file for it
+     */
+    public static Block readFromLog(long blockNum) throws IOException, ClassNotFoundException {
+        File blockFile = new File(String.format("./logs/block_%d.blk", blockNum));
+        if (!blockFile.exists()) {
+            return null;
+        }
+
+        try (FileInputStream blockDataFileStream = new FileInputStream(blockFile);
+             ObjectInputStream blockDataObjectStream = new ObjectInputStream(blockDataFileStream)) {
+            return (Block) blockDataObjectStream.readObject();
+        }
+    }
+
+    /**
+     * Get the proof that a transaction is part of this block's merkle root
+     *
+     * @param index - Position of the transaction in the block
+     * @return the inclusion proof
+     */
+    public MerkleTree.Proof getTransactionProof(int index) throws NoSuchAlgorithmException {
+        return MerkleTree.proof(MerkleTree.leaves(transactions, transactionSignedObjects), index);
+    }
+
+    public boolean verifyMerkleRoot() throws NoSuchAlgorithmException {
+        if (transactionsNum != 5) {
+            return true;
+        }
+
+        return Arrays.equals(merkleRoot, MerkleTree.root(MerkleTree.leaves(transactions, transactionSignedObjects)));
+    }
+
     public void setSignature(PrivateKey myPrivateKey) throws IOException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         // Sign block data
-        Signature s = Signature.getInstance("SHA256withRSA");
-        s.initSign(myPrivateKey);
+        this.signature = sign(myPrivateKey, blockDataToByteArray());
+    }
 
-        // Get byte array of block data
-        byte[] buf = blockDataToByteArray();
-        s.update(buf);
+    private static byte[] sign(PrivateKey privateKey, byte[] data) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        Signature s = Signature.getInstance("SHA256withRSA");
+        s.initSign(privateKey);
+        s.update(data);
+        return s.sign();
+    }
 
-        // Save signature
-        this.signature = s.sign();
+    public void addTransaction(String sendingUser, String value, String receivingUser, SignedObject signedObject, PrivateKey serverPrivateKey) throws IOException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        appendTransaction(sendingUser, value, receivingUser, signedObject, System.currentTimeMillis());
+        save(serverPrivateKey);
     }
 
-    public void addTransaction(String sendingUser, String value, String receivingUser, SignedObject signedObject, String keyStore, String keyStorePassword) throws UnrecoverableKeyException, CertificateException, IOException, KeyStoreException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+    /**
+     * Add a transaction to the block without writing it to the log
+     *
+     * @return true if the block is now full and must be saved before adding more transactions
+     */
+    public boolean appendTransaction(String sendingUser, String value, String receivingUser, SignedObject signedObject, long time) {
         this.transactions.add(String.format("%s sent %s€ to %s", sendingUser, value, receivingUser));
         // Add respective signedObject
         this.transactionSignedObjects.add(signedObject);
+        this.transactionTimes.add(time);
         this.transactionsNum++;
 
-        if (this.transactionsNum == 5) {
-            saveCompleteBlock(keyStore, keyStorePassword);
+        return isFull();
+    }
+
+    /**
+     * Write the block to its log file, sealing it if it is full
+     *
+     * @param serverPrivateKey - Key used to sign complete blocks
+     */
+    public void save(PrivateKey serverPrivateKey) throws IOException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        if (isFull()) {
+            saveCompleteBlock(serverPrivateKey);
         } else {
-            saveBlock(keyStore, keyStorePassword);
+            saveBlock();
         }
+    }
 
+    public boolean isFull() {
+        return this.transactionsNum >= 5;
+    }
+
+    /**
+     * Remember the block as it is now, to go back to it if writing what follows fails
+     *
+     * @return the mark
+     */
+    public Mark mark() {
+        return new Mark(blockNum, transactionsNum, hash);
+    }
+
+    /**
+     * Drop every transaction added since a mark of this block, and any seal started since
+     *
+     * @param mark - Mark taken while the block was as it should be again
+     */
+    public void reset(Mark mark) {
+        int count = (int) mark.transactionsNum;
+        this.blockNum = mark.blockNum;
+        this.transactionsNum = mark.transactionsNum;
+        this.hash = mark.hash;
+        this.transactions = new ArrayList<>(this.transactions.subList(0, count));
+        this.transactionSignedObjects = new ArrayList<>(this.transactionSignedObjects.subList(0, count));
+        this.transactionTimes = new ArrayList<>(this.transactionTimes.subList(0, count));
+        this.signature = new byte[32];
+        this.merkleRoot = null;
+        this.headerSignature = null;
     }
 
     public boolean verifyHash(byte[] otherHash) {
@@ -104,6 +237,18 @@ public class Block implements Serializable {
         return s.verify(signature);
     }
 
+    public boolean verifyHeaderSignature(PublicKey myPublicKey) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+
+        if (transactionsNum != 5) {
+            return true;
+        }
+
+        Signature s = Signature.getInstance("SHA256withRSA");
+        s.initVerify(myPublicKey);
+        s.update(getHeader());
+        return s.verify(headerSignature);
+    }
+
     public byte[] calculateHash() throws NoSuchAlgorithmException, IOException {
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         return md.digest(blockToByteArray(this));
@@ -114,54 +259,48 @@ public class Block implements Serializable {
         this.transactionsNum = 0;
         this.transactions = new ArrayList<>();
         this.transactionSignedObjects = new ArrayList<>();
+        this.transactionTimes = new ArrayList<>();
         this.signature = new byte[32];
+        this.merkleRoot = null;
+        this.headerSignature = null;
     }
 
-    public boolean allTransactionsValid() throws NoSuchAlgorithmException, IOException, ClassNotFoundException, CertificateException, SignatureException, InvalidKeyException {
-
-        for (int i = 0; i < transactionSignedObjects.size(); i++) {
-            SignedObject signedObject = transactionSignedObjects.get(i);
-            String sendingUser = transactions.get(i).split(" ")[0];
-
-            FileInputStream fis = new FileInputStream("./certificates/" + sendingUser + "Certificate.cer");
-            CertificateFactory cf = CertificateFactory.getInstance("X509");
+    public boolean allTransactionsValid() throws IOException, CertificateException, InterruptedException {
+        return SignatureVerifier.verifyAll(transactionSignedObjects, getSenderKeys()).isEmpty();
+    }
 
-            PublicKey pk = cf.generateCertificate(fis).getPublicKey();
-            if (!signedObject.verify(pk, Signature.getInstance("SHA256withRSA"))) {
-                return false;
-            }
+    public List<SignedObject> getTransactionSignedObjects() {
+        return this.transactionSignedObjects;
+    }
 
+    /**
+     * Get the public key of each transaction's sender
+     *
+     * @return the keys, in transaction order, with null for senders without a certificate
+     */
+    public List<PublicKey> getSenderKeys() throws IOException, CertificateException {
+        List<PublicKey> keys = new ArrayList<>(transactions.size());
+        for (String transaction : transactions) {
+            String sendingUser = transaction.split(" ")[0];
+            keys.add(CertificateCache.getPublicKey(sendingUser));
         }
-
-        return true;
+        return keys;
     }
 
-    private void saveBlock(String keystore, String keystorePassword) throws IOException, KeyStoreException, CertificateException, NoSuchAlgorithmException, UnrecoverableKeyException, InvalidKeyException, SignatureException {
-        // Get keystore
-        FileInputStream kfile = new FileInputStream(keystore);
-        KeyStore kstore = KeyStore.getInstance("JCEKS");
-        kstore.load(kfile, keystorePassword.toCharArray());
-
+    private void saveBlock() throws IOException {
         byte[] data = blockToByteArray(this);
 
         // Save log in log file
         String filename = String.format("./logs/block_%d.blk", getBlockNum());
-        File outputFile = new File(filename);
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-            outputStream.write(data);
-        }
-        System.out.println(String.format("Block file %s updated", filename));
+        writeBlockFile(filename, data);
+        Log.debug("block.written", "file", filename);
 
     }
 
-    private void saveCompleteBlock(String keyStore, String keyStorePassword) throws UnrecoverableKeyException, KeyStoreException, NoSuchAlgorithmException, IOException, SignatureException, InvalidKeyException, CertificateException {
-        // Get keystore
-        FileInputStream kfile = new FileInputStream(keyStore);
-        KeyStore kstore = KeyStore.getInstance("JCEKS");
-        kstore.load(kfile, keyStorePassword.toCharArray());
-
-        // Get private key
-        PrivateKey myPrivateKey = (PrivateKey) kstore.getKey("myServer", keyStorePassword.toCharArray());
+    private void saveCompleteBlock(PrivateKey myPrivateKey) throws NoSuchAlgorithmException, IOException, SignatureException, InvalidKeyException {
+        // Root over the transactions, covered by the signature
+        this.merkleRoot = MerkleTree.root(MerkleTree.leaves(transactions, transactionSignedObjects));
+        this.headerSignature = sign(myPrivateKey, getHeader());
 
         // Sign block data
         setSignature(myPrivateKey);
@@ -172,28 +311,61 @@ public class Block implements Serializable {
 
         // Save block in log file
         String filename = String.format("./logs/block_%d.blk", getBlockNum());
-        File outputFile = new File(filename);
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-            outputStream.write(data);
-        }
-        System.out.println(String.format("Complete block file %s created", filename));
+        writeBlockFile(filename, data);
+        Log.info("block.sealed", "file", filename);
 
         // Reset object
         resetBlock();
     }
 
+    private void writeBlockFile(String filename, byte[] data) throws IOException {
+        // Written next to the block and moved over it, so a crash never leaves a partial block behind
+        Path blockPath = Paths.get(filename);
+        Path temporaryPath = Paths.get(filename + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // Make sure the block reached the disk before acknowledging it
+            channel.force(false);
+        }
+        Files.move(temporaryPath, blockPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Position of a block, as remembered by {@link #mark()}
+     */
+    public static final class Mark {
+
+        private final long blockNum;
+        private final long transactionsNum;
+        private final byte[] hash;
+
+        private Mark(long blockNum, long transactionsNum, byte[] hash) {
+            this.blockNum = blockNum;
+            this.transactionsNum = transactionsNum;
+            this.hash = hash;
+        }
+    }
+
     private byte[] blockDataToByteArray() throws IOException {
         byte[] hash = this.getHash();
         byte[] blockNum = longToBytes(this.getBlockNum());
         byte[] transactionsNum = longToBytes(this.getTransactionsNum());
         byte[] transactions = objectToByteArray(this.getTransactions());
         byte[] transactionSignedObjects = objectToByteArray(this.transactionSignedObjects);
+        byte[] transactionTimes = objectToByteArray(this.transactionTimes);
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         outputStream.write(hash);
         outputStream.write(blockNum);
         outputStream.write(transactionsNum);
         outputStream.write(transactions);
         outputStream.write(transactionSignedObjects);
+        outputStream.write(transactionTimes);
+        if (this.merkleRoot != null) {
+            outputStream.write(this.merkleRoot);
+        }
         return outputStream.toByteArray();
     }
 
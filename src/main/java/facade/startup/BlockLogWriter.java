@@ -0,0 +1,213 @@
+package main.java.facade.startup;
+
+import main.java.utils.LatencyHistogram;
+import main.java.utils.Log;
+import main.java.utils.Metrics;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SignedObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Single writer of the transaction log. Session threads enqueue transactions and the writer
+ * appends them to the current block in order, signing and sealing blocks as they fill up.
+ */
+public class BlockLogWriter extends Thread {
+
+    /**
+     * When a session is allowed to carry on after submitting a transaction
+     */
+    public enum Durability {
+        // As soon as the transaction is queued
+        ENQUEUE,
+        // Only after the block holding the transaction was synced to disk
+        FSYNC
+    }
+
+    private static final LatencyHistogram APPEND = Metrics.histogram("blocklog.append");
+    private static final LatencyHistogram WRITE = Metrics.histogram("blocklog.write");
+    private static final LatencyHistogram SEAL = Metrics.histogram("blocklog.seal");
+
+    private final Block block;
+    private final AuditLogIndex index;
+    private final PrivateKey serverPrivateKey;
+    private final Durability durability;
+    private final BlockingQueue<Entry> queue;
+
+    // Guards closing against appends, so nothing is queued after the closing entry
+    private final Object closeLock = new Object();
+    private boolean closed;
+
+    public BlockLogWriter(Block block, AuditLogIndex index, String keystore, String keystorePassword, Durability durability, int capacity) throws IOException, GeneralSecurityException {
+        super("BlockLogWriter");
+        setDaemon(true);
+
+        // Get keystore
+        try (FileInputStream kfile = new FileInputStream(keystore)) {
+            KeyStore kstore = KeyStore.getInstance("JCEKS");
+            kstore.load(kfile, keystorePassword.toCharArray());
+
+            // Get private key, once for the writer's lifetime
+            this.serverPrivateKey = (PrivateKey) kstore.getKey("myServer", keystorePassword.toCharArray());
+        }
+
+        this.block = block;
+        this.index = index;
+        this.durability = durability;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Submit a transaction to the log. Blocks while the queue is full.
+     *
+     * @return completes once the transaction is on disk, or exceptionally if it couldn't be written
+     * or the log is closed
+     */
+    public CompletableFuture<Void> append(String sendingUser, String value, String receivingUser, SignedObject signedObject) throws InterruptedException {
+        long start = System.nanoTime();
+        Entry entry = new Entry(sendingUser, value, receivingUser, signedObject, System.currentTimeMillis());
+
+        synchronized (closeLock) {
+            if (closed) {
+                entry.written.completeExceptionally(new IOException("Error: The transaction log is closed."));
+                return entry.written;
+            }
+            queue.put(entry);
+        }
+        APPEND.recordSince(start);
+        return entry.written;
+    }
+
+    /**
+     * @return true if sessions must wait for their transactions to be on disk before acknowledging them
+     */
+    public boolean isDurable() {
+        return durability == Durability.FSYNC;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting transactions and wait until every queued one has been written
+     */
+    public void close() throws InterruptedException {
+        synchronized (closeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Queued last, so the writer stops once everything before it is written
+            queue.put(Entry.CLOSE);
+        }
+        join();
+    }
+
+    @Override
+    public void run() {
+        List<Entry> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+
+            boolean closing = batch.get(batch.size() - 1) == Entry.CLOSE;
+            if (closing) {
+                batch.remove(batch.size() - 1);
+            }
+            writeBatch(batch);
+            batch.clear();
+
+            if (closing) {
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        // Entries appended since the last write to disk
+        List<Entry> pending = new ArrayList<>();
+        // Block as last written, to go back to if a write fails
+        Block.Mark written = block.mark();
+
+        try {
+            for (Entry entry : batch) {
+                entry.blockNum = block.getBlockNum();
+                entry.index = (int) block.getTransactionsNum();
+                pending.add(entry);
+                if (block.appendTransaction(entry.sendingUser, entry.value, entry.receivingUser, entry.signedObject, entry.time)) {
+                    // Block is full, seal it before starting the next one
+                    long start = System.nanoTime();
+                    block.save(serverPrivateKey);
+                    SEAL.recordSince(start);
+                    complete(pending);
+                    written = block.mark();
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                long start = System.nanoTime();
+                block.save(serverPrivateKey);
+                WRITE.recordSince(start);
+                complete(pending);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.error("blocklog.failed", "error", e.getMessage());
+            // Drop what didn't reach the disk, so the block matches its file again
+            block.reset(written);
+            // Already written entries stay completed
+            for (Entry entry : batch) {
+                entry.written.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void complete(List<Entry> entries) {
+        for (Entry entry : entries) {
+            // Only index what is on disk
+            index.add(entry.blockNum, entry.index, entry.time, entry.sendingUser, entry.value, entry.receivingUser);
+            entry.written.complete(null);
+        }
+        entries.clear();
+    }
+
+    private static class Entry {
+
+        // Queued by close, after every other entry
+        private static final Entry CLOSE = new Entry(null, null, null, null, 0);
+
+        private final String sendingUser;
+        private final String value;
+        private final String receivingUser;
+        private final SignedObject signedObject;
+        private final long time;
+        private final CompletableFuture<Void> written;
+
+        // Position in the log, known once the writer appends it
+        private long blockNum;
+        private int index;
+
+        Entry(String sendingUser, String value, String receivingUser, SignedObject signedObject, long time) {
+            this.sendingUser = sendingUser;
+            this.value = value;
+            this.receivingUser = receivingUser;
+            this.signedObject = signedObject;
+            this.time = time;
+            this.written = new CompletableFuture<>();
+        }
+    }
+
+}
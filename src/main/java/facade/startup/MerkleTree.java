@@ -0,0 +1,175 @@
+package main.java.facade.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignedObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Merkle tree over the transactions of a block. Leaves and inner nodes are hashed with
+ * different prefixes, and a node without a sibling is promoted to the next level as is.
+ */
+public final class MerkleTree {
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private MerkleTree() {
+    }
+
+    /**
+     * Get the bytes a leaf hashes: the leaf prefix, the transaction record in UTF-8 and the
+     * signature of its signed object
+     *
+     * @param transaction  - Transaction description
+     * @param signedObject - Transaction signed by its creator
+     * @return the leaf preimage
+     */
+    public static byte[] leafPreimage(String transaction, SignedObject signedObject) {
+        byte[] record = transaction.getBytes(StandardCharsets.UTF_8);
+        byte[] signature = signedObject.getSignature();
+        ByteArrayOutputStream preimage = new ByteArrayOutputStream(1 + record.length + signature.length);
+        preimage.write(LEAF_PREFIX);
+        preimage.write(record, 0, record.length);
+        preimage.write(signature, 0, signature.length);
+        return preimage.toByteArray();
+    }
+
+    /**
+     * Hash a transaction record together with the signature of its signed object
+     *
+     * @param transaction  - Transaction description
+     * @param signedObject - Transaction signed by its creator
+     * @return the leaf hash
+     */
+    public static byte[] leafHash(String transaction, SignedObject signedObject) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(leafPreimage(transaction, signedObject));
+    }
+
+    public static List<byte[]> leaves(List<String> transactions, List<SignedObject> signedObjects) throws NoSuchAlgorithmException {
+        List<byte[]> leaves = new ArrayList<>(transactions.size());
+        for (int i = 0; i < transactions.size(); i++) {
+            leaves.add(leafHash(transactions.get(i), signedObjects.get(i)));
+        }
+        return leaves;
+    }
+
+    /**
+     * Calculate the root of a tree
+     *
+     * @param leaves - Leaf hashes
+     * @return the root hash, or null if there are no leaves
+     */
+    public static byte[] root(List<byte[]> leaves) throws NoSuchAlgorithmException {
+        if (leaves.isEmpty()) {
+            return null;
+        }
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        List<byte[]> level = leaves;
+        while (level.size() > 1) {
+            level = nextLevel(md, level);
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Build the inclusion proof of a leaf
+     *
+     * @param leaves - Leaf hashes
+     * @param index  - Position of the leaf to prove
+     * @return the proof, from the leaf up to the root
+     */
+    public static Proof proof(List<byte[]> leaves, int index) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        List<byte[]> siblings = new ArrayList<>();
+        List<Boolean> siblingOnLeft = new ArrayList<>();
+
+        List<byte[]> level = leaves;
+        int position = index;
+        while (level.size() > 1) {
+            int siblingPosition = position % 2 == 0 ? position + 1 : position - 1;
+
+            // Promoted nodes have no sibling at this level
+            if (siblingPosition < level.size()) {
+                siblings.add(level.get(siblingPosition));
+                siblingOnLeft.add(siblingPosition < position);
+            }
+
+            level = nextLevel(md, level);
+            position /= 2;
+        }
+
+        return new Proof(leaves.get(index), siblings, siblingOnLeft);
+    }
+
+    private static List<byte[]> nextLevel(MessageDigest md, List<byte[]> level) {
+        List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            if (i + 1 < level.size()) {
+                next.add(nodeHash(md, level.get(i), level.get(i + 1)));
+            } else {
+                next.add(level.get(i));
+            }
+        }
+        return next;
+    }
+
+    private static byte[] nodeHash(MessageDigest md, byte[] left, byte[] right) {
+        md.update(NODE_PREFIX);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    /**
+     * Path from a leaf to the root: the sibling hash at every level and the side it sits on
+     */
+    public static class Proof {
+
+        private final byte[] leaf;
+        private final List<byte[]> siblings;
+        private final List<Boolean> siblingOnLeft;
+
+        Proof(byte[] leaf, List<byte[]> siblings, List<Boolean> siblingOnLeft) {
+            this.leaf = leaf;
+            this.siblings = siblings;
+            this.siblingOnLeft = siblingOnLeft;
+        }
+
+        public byte[] getLeaf() {
+            return this.leaf;
+        }
+
+        public List<byte[]> getSiblings() {
+            return Collections.unmodifiableList(this.siblings);
+        }
+
+        public boolean isSiblingOnLeft(int level) {
+            return this.siblingOnLeft.get(level);
+        }
+
+        /**
+         * Check the proof against a root
+         *
+         * @param root - Expected root hash
+         * @return true if hashing the leaf up the path gives the root
+         */
+        public boolean verify(byte[] root) throws NoSuchAlgorithmException {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] current = leaf;
+            for (int i = 0; i < siblings.size(); i++) {
+                current = siblingOnLeft.get(i)
+                        ? nodeHash(md, siblings.get(i), current)
+                        : nodeHash(md, current, siblings.get(i));
+            }
+            return Arrays.equals(current, root);
+        }
+    }
+
+}
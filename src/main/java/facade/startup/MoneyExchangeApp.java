@@ -1,29 +1,40 @@
 package main.java.facade.startup;
 
+import main.java.business.catalogs.CatalogSnapshot;
 import main.java.business.catalogs.GroupIDRepository;
 import main.java.business.catalogs.QRCodeRepository;
 import main.java.business.catalogs.UserRepository;
 import main.java.business.domain.*;
 import main.java.facade.exceptions.ApplicationException;
+import main.java.utils.Constants;
+import main.java.utils.IntHashMap;
+import main.java.utils.LatencyHistogram;
+import main.java.utils.Log;
+import main.java.utils.Metrics;
+import main.java.utils.Money;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 public class MoneyExchangeApp {
     private static final String REQ_ID_FILENAME = "./resources/reqid.txt";
 
+    private static final LatencyHistogram CATALOG_LOAD = Metrics.histogram("catalog.load");
+    private static final LatencyHistogram CATALOG_SAVE = Metrics.histogram("catalog.save");
+
     private UserRepository usersData;
     private GroupIDRepository groupIDs;
     private QRCodeRepository qrCodePayments;
@@ -33,6 +44,14 @@ public class MoneyExchangeApp {
     // Current user
     private User user;
 
+    // Responses to read commands, reused while the user's version is the one they were built at
+    private final Map<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > Constants.RESPONSE_CACHE_SIZE;
+        }
+    };
+
     public MoneyExchangeApp(String username, UserRepository usersData, GroupIDRepository groupIDs, QRCodeRepository qrCodePayments, int paymentRequestID) {
         // Get user based on username and file
         user = usersData.getUser(username);
@@ -43,13 +62,58 @@ public class MoneyExchangeApp {
         this.paymentRequestID = paymentRequestID;
     }
 
+    /**
+     * Get the current user's id
+     *
+     * @return the id of the user using the app
+     */
+    public String getUserID() {
+        return user.getID();
+    }
+
     /**
      * Get the current user's balance
      *
      * @return a string message indicating the balance
      */
     public String getBalance() {
-        return String.format("Current Balance: %.2f €", user.getBalance());
+        return Money.append(new StringBuilder(32).append("Current Balance: "), user.getBalance()).append(" €").toString();
+    }
+
+    /**
+     * Get the version of what the current user can read, which changes once every write that shows
+     * in their responses is published. Read it before building a response to cache it.
+     *
+     * @return the current user's version
+     */
+    public long getVersion() {
+        return usersData.getVersion(user.getID());
+    }
+
+    /**
+     * Get a response cached for the current user, if nothing it shows changed since. Doesn't need
+     * the catalogs to be loaded.
+     *
+     * @param key - Command the response was for
+     * @return the response or null if there's none or it's out of date
+     */
+    public String getCachedResponse(String key) {
+        CachedResponse cached = responses.get(key);
+        if (cached == null || cached.version != getVersion()) {
+            return null;
+        }
+        return cached.response;
+    }
+
+    /**
+     * Cache a response for the current user
+     *
+     * @param key      - Command the response is for
+     * @param version  - Version of the user the response was built at
+     * @param response - Response
+     */
+    public void cacheResponse(String key, long version, String response) {
+        responses.put(key, new CachedResponse(version, response));
     }
 
     /**
@@ -60,7 +124,25 @@ public class MoneyExchangeApp {
      * @return a string message indicating the success of the operation
      * @throws ApplicationException
      */
-    public String makePayment(String userID, float amount) throws ApplicationException {
+    public String makePayment(String userID, long amount) throws ApplicationException {
+
+        User receivingUser = checkPayment(userID, amount);
+
+        user.makePayment(receivingUser, amount);
+        usersData.changed(user.getID());
+        usersData.changed(userID);
+        return String.format("Payment of %s € to user %s was successful! Current Balance: %s €", Money.format(amount), userID, Money.format(user.getBalance()));
+    }
+
+    /**
+     * Check a payment to another user can be made, without making it
+     *
+     * @param userID - Receiving user id
+     * @param amount - Amount to transfer
+     * @return the receiving user
+     * @throws ApplicationException if the payment can't be made
+     */
+    public User checkPayment(String userID, long amount) throws ApplicationException {
 
         if (amount < 0) {
             throw new ApplicationException("Error: Can't make a payment of 0 or less");
@@ -83,21 +165,19 @@ public class MoneyExchangeApp {
             throw new ApplicationException(String.format("Error: Not enough funds to perform payment to user %s.", userID));
         }
 
-        user.makePayment(receivingUser, amount);
-        return String.format("Payment of %.2f € to user %s was successful! Current Balance: %.2f €", amount, userID, user.getBalance());
+        return receivingUser;
     }
 
     /**
      * Send a payment request to another user
      *
-     * @param userID       - Receiving user id
-     * @param amount       - Amount for the request
-     * @param groupPayment - Associated group payment, if exists
+     * @param userID - Receiving user id
+     * @param amount - Amount for the request
      * @return a string message indicating the success of the operation
      * @throws IOException
      * @throws ApplicationException
      */
-    public String requestPayment(String userID, float amount, GroupPayment groupPayment) throws IOException, ApplicationException {
+    public String requestPayment(String userID, long amount) throws IOException, ApplicationException {
 
         if (amount < 0) {
             throw new ApplicationException("Error: Can't make a request of 0 or less");
@@ -114,36 +194,94 @@ public class MoneyExchangeApp {
             throw new ApplicationException(String.format("Error: User %s not found.", userID));
         }
 
-        getReqID(REQ_ID_FILENAME);
-        payingUser.addPendingPayment(paymentRequestID, amount, user, groupPayment);
-        paymentRequestID++;
-        updateReqID();
+        payingUser.addPendingPayment(new PaymentRequest(reserveRequestIDs(1), amount, user.getID()));
+        usersData.changed(userID);
 
-        return String.format("Payment request of %.2f € sent to %s successfully!", amount, userID);
+        return String.format("Payment request of %s € sent to %s successfully!", Money.format(amount), userID);
     }
 
     /**
-     * View pending requests
+     * View the first page of pending requests
      *
-     * @return a string containing all pending requests
+     * @return a string containing the pending requests with the lowest ids
      */
     public String viewRequests() {
-        HashMap<Integer, PaymentRequest> pendingPayments = user.getPendingPayments();
+        return viewRequests(Integer.MIN_VALUE);
+    }
+
+    /**
+     * View a page of pending requests, in ascending id order
+     *
+     * @param afterID - Cursor, only requests with a greater id are listed
+     * @return a string containing the requests on the page, and the cursor of the next page if there is one
+     */
+    public String viewRequests(int afterID) {
+        IntHashMap<PaymentRequest> pendingPayments = user.getPendingPayments();
 
         if (pendingPayments.isEmpty()) {
             return "There are no pending payments.";
         }
 
-        StringBuilder sb = new StringBuilder();
+        // Ask for one extra request to know if there is a next page
+        int[] ids = user.getPendingIDs().keysAfter(afterID, Constants.VIEW_REQUESTS_PAGE_SIZE + 1);
+        if (ids.length == 0) {
+            return String.format("There are no pending payments after request %d.", afterID);
+        }
 
+        int shown = Math.min(ids.length, Constants.VIEW_REQUESTS_PAGE_SIZE);
+        StringBuilder sb = new StringBuilder(64 * (shown + 2));
         sb.append("Pending payments:");
-        for (PaymentRequest payment : pendingPayments.values()) {
-            sb.append(String.format("\nID: %d | Amount: %.2f € | Receiver: %s", payment.getId(), payment.getAmount(), payment.getCreator().getID()));
-        }
+        appendRequests(sb, pendingPayments, ids, 0, shown);
 
+        if (ids.length > shown) {
+            sb.append("\nMore requests: v ").append(ids[shown - 1]);
+        }
         return sb.toString();
     }
 
+    /**
+     * Stream every pending request, in ascending id order and in chunks, so no more than a chunk is
+     * ever formatted at once
+     *
+     * @param chunkSize - Maximum number of requests per chunk
+     * @param chunks    - Receives each chunk as soon as it's formatted
+     * @return the number of requests streamed
+     */
+    public int streamRequests(int chunkSize, ChunkWriter chunks) throws IOException {
+        IntHashMap<PaymentRequest> pendingPayments = user.getPendingPayments();
+        // Copied once and walked in chunks, already in ascending order
+        int[] ids = user.getPendingIDs().toArray();
+        StringBuilder sb = new StringBuilder(64 * (chunkSize + 1));
+
+        for (int streamed = 0; streamed < ids.length; streamed += chunkSize) {
+            sb.setLength(0);
+            if (streamed == 0) {
+                sb.append("Pending payments:");
+            }
+            appendRequests(sb, pendingPayments, ids, streamed, Math.min(streamed + chunkSize, ids.length));
+            // Each chunk is shown on its own line, so later chunks drop the line break before their first request
+            chunks.write(sb.substring(streamed == 0 ? 0 : 1));
+        }
+        return ids.length;
+    }
+
+    /**
+     * Receives the chunks of a streamed response
+     */
+    public interface ChunkWriter {
+        void write(String chunk) throws IOException;
+    }
+
+    private static void appendRequests(StringBuilder sb, IntHashMap<PaymentRequest> pendingPayments, int[] ids, int from, int to) {
+        for (int i = from; i < to; i++) {
+            PaymentRequest payment = pendingPayments.get(ids[i]);
+            sb.append("\nID: ").append(payment.getId())
+                    .append(" | Amount: ");
+            Money.append(sb, payment.getAmount())
+                    .append(" € | Receiver: ").append(payment.getCreatorID());
+        }
+    }
+
     /**
      * Pay a request previously received
      *
@@ -153,21 +291,56 @@ public class MoneyExchangeApp {
      */
     public String payRequest(int reqID) throws ApplicationException {
 
+        PaymentRequest payment = checkPayRequest(reqID);
+        long amount = payment.getAmount();
+        User creator = usersData.getUser(payment.getCreatorID());
+
+        user.payRequest(reqID, creator);
+        usersData.changed(user.getID());
+        usersData.changed(creator.getID());
+
+        // If there is a group payment attached to the request,
+        // eliminate the current user from the owing list
+        if (payment.isGroupPaymentRequest()) {
+            Group g = groupIDs.getGroup(payment.getGroupID());
+            if (g != null) {
+                g.settleShare(payment.getGroupPaymentID(), user.getID(), amount);
+                usersData.changed(g.getOwnerID());
+            }
+        }
+
+        return String.format("Payment request of %s € to user %s was successful! Current Balance: %s €", Money.format(amount), creator.getID(), Money.format(user.getBalance()));
+    }
+
+    /**
+     * Check a request previously received can be paid, without paying it
+     *
+     * @param reqID - request id
+     * @return the request
+     * @throws ApplicationException if the request can't be paid
+     */
+    public PaymentRequest checkPayRequest(int reqID) throws ApplicationException {
+
         PaymentRequest payment = user.getPendingPayment(reqID);
 
         if (payment == null) {
             throw new ApplicationException(String.format("Error: Request %d not found.", reqID));
         }
 
-        float amount = payment.getAmount();
+        long amount = payment.getAmount();
 
         // User doesn't have enough funds
         if (user.getBalance() < amount) {
             throw new ApplicationException(String.format("Error: Insufficient funds to pay payment request %d.", reqID));
         }
 
-        user.payRequest(reqID);
-        return String.format("Payment request of %.2f € to user %s was successful! Current Balance: %.2f €", amount, payment.getCreator().getID(), user.getBalance());
+        User creator = usersData.getUser(payment.getCreatorID());
+
+        if (creator == null) {
+            throw new ApplicationException(String.format("Error: User %s not found.", payment.getCreatorID()));
+        }
+
+        return payment;
     }
 
     /**
@@ -177,16 +350,13 @@ public class MoneyExchangeApp {
      * @return a string message indicating the success of the operation
      * @throws IOException
      */
-    public String obtainQRCode(float amount) throws IOException {
+    public String obtainQRCode(long amount) throws IOException {
 
-        getReqID(REQ_ID_FILENAME);
-        QRCodePayment qrCodePayment = new QRCodePayment(paymentRequestID, amount, user.getID());
-        paymentRequestID++;
-        updateReqID();
+        QRCodePayment qrCodePayment = new QRCodePayment(reserveRequestIDs(1), amount, user.getID());
 
         qrCodePayments.addQRCodePayment(qrCodePayment);
 
-        return "QR Code created!";
+        return String.format("QR Code %d created!", qrCodePayment.getId());
     }
 
     /**
@@ -198,16 +368,31 @@ public class MoneyExchangeApp {
      */
     public String confirmQRCode(int id) throws ApplicationException {
 
+        QRCodePayment qrPayment = checkConfirmQRCode(id);
+
+        String result = makePayment(qrPayment.getCreatorID(), qrPayment.getAmount());
+        qrCodePayments.removeQRCodePayment(id);
+
+        return result;
+    }
+
+    /**
+     * Check a QRCode payment request can be paid, without paying it
+     *
+     * @param id - The id obtained from reading the QRCode of a payment request
+     * @return the QRCode payment request
+     * @throws ApplicationException if the QRCode payment request can't be paid
+     */
+    public QRCodePayment checkConfirmQRCode(int id) throws ApplicationException {
+
         QRCodePayment qrPayment = qrCodePayments.getQRCodePayment(id);
 
         if (qrPayment == null) {
             throw new ApplicationException("Error: Code does not represent a QR Code Payment!");
         }
 
-        String result = makePayment(qrPayment.getCreatorID(), qrPayment.getAmount());
-        qrCodePayments.removeQRCodePayment(id);
-
-        return result;
+        checkPayment(qrPayment.getCreatorID(), qrPayment.getAmount());
+        return qrPayment;
     }
 
     /**
@@ -222,9 +407,10 @@ public class MoneyExchangeApp {
             throw new ApplicationException(String.format("Error: Group with ID: %d already exists.", groupID));
         }
 
-        Group group = new Group(groupID, user);
-        user.addOwnedGroup(group);
-        groupIDs.add(groupID);
+        Group group = new Group(groupID, user.getID());
+        user.addOwnedGroup(groupID);
+        groupIDs.add(group);
+        usersData.changed(user.getID());
         return "Created new group successfully!";
     }
 
@@ -249,18 +435,7 @@ public class MoneyExchangeApp {
             throw new ApplicationException(String.format("Error: User %s not found.", userID));
         }
 
-        Group g = user.getOwnedGroup(groupID);
-
-        if (g == null) {
-
-            // User is not owner of group and group exists
-            if (groupIDs.exists(groupID)) {
-                throw new ApplicationException("Error: You are not the submitted group's owner.");
-            }
-
-            // Group does not exist
-            throw new ApplicationException(String.format("Error: Group with ID: %d doesn't exist.", groupID));
-        }
+        Group g = getOwnedGroup(groupID);
 
         User userToAdd = usersData.getUser(userID);
 
@@ -270,6 +445,11 @@ public class MoneyExchangeApp {
         }
 
         g.addMember(userToAdd);
+        // Every member lists the group's members
+        usersData.changed(g.getOwnerID());
+        for (String memberID : g.getMembers()) {
+            usersData.changed(memberID);
+        }
         return String.format("User %s successfully added to group %d!", userID, groupID);
     }
 
@@ -279,21 +459,22 @@ public class MoneyExchangeApp {
      * @return a string containing the owned groups and participating groups
      */
     public String displayGroups() {
-        ArrayList<Group> ownedGroups = user.getOwnedGroups();
-        ArrayList<Group> participantGroups = user.getParticipantGroups();
+        Set<Integer> ownedGroups = user.getOwnedGroups();
+        Set<Integer> participantGroups = user.getParticipantGroups();
 
         StringBuilder sb = new StringBuilder();
 
         sb.append("Owned groups:");
         if (!ownedGroups.isEmpty()) {
-            for (Group group : ownedGroups) {
-                sb.append(String.format("\nGroup ID %d | Members: ", group.getID()));
+            for (int groupID : ownedGroups) {
+                Group group = groupIDs.getGroup(groupID);
+                sb.append("\nGroup ID ").append(group.getID()).append(" | Members: ");
 
                 if (group.getMembers().isEmpty()) {
                     sb.append("No members!");
                 } else {
-                    for (User member : group.getMembers()) {
-                        sb.append(String.format("%s - ", member.getID()));
+                    for (String memberID : group.getMembers()) {
+                        sb.append(memberID).append(" - ");
                     }
 
                 }
@@ -306,11 +487,12 @@ public class MoneyExchangeApp {
 
         sb.append("Participating groups:");
         if (!participantGroups.isEmpty()) {
-            for (Group group : participantGroups) {
-                sb.append(String.format("\nGroup ID %d | Group Owner: %s | Members: ", group.getID(), group.getOwner().getID()));
+            for (int groupID : participantGroups) {
+                Group group = groupIDs.getGroup(groupID);
+                sb.append("\nGroup ID ").append(group.getID()).append(" | Group Owner: ").append(group.getOwnerID()).append(" | Members: ");
 
-                for (User member : group.getMembers()) {
-                    sb.append(String.format("%s - ", member.getID()));
+                for (String memberID : group.getMembers()) {
+                    sb.append(memberID).append(" - ");
                 }
             }
         } else {
@@ -325,42 +507,37 @@ public class MoneyExchangeApp {
      *
      * @param groupID - Group id
      * @param amount  - Amount to be split evenly between members
-     * @return a string describing the success of the split and the individual sent payment requests
+     * @return a string summing up the split and the range of sent payment requests
      * @throws IOException
      */
-    public String dividePayment(int groupID, float amount) throws IOException, ApplicationException {
+    public String dividePayment(int groupID, long amount) throws IOException, ApplicationException {
 
         if (amount < 0) {
             throw new ApplicationException("Error: Can't divide a payment of 0 or less");
         }
 
-        Group g = user.getOwnedGroup(groupID);
-
-        if (g == null) {
-
-            // User is not owner of group and group exists
-            if (groupIDs.exists(groupID)) {
-                throw new ApplicationException("Error: You are not the submitted group's owner.");
-            }
-
-            // Group does not exist
-            throw new ApplicationException(String.format("Error: Group with ID: %d doesn't exist.", groupID));
-        }
+        Group g = getOwnedGroup(groupID);
 
         if (g.getMembers().isEmpty()) {
             throw new ApplicationException("Error: Cannot divide payment because group is empty.");
         }
 
-        getReqID(REQ_ID_FILENAME);
-        GroupPayment gp = new GroupPayment(paymentRequestID, amount, g, g.getMembers());
-        paymentRequestID++;
-
-        String result = gp.dividePayment(paymentRequestID, amount);
         // Group request has id and every single request generated to every member will also have an id
-        paymentRequestID += g.getMembers().size();
-        updateReqID();
+        int members = g.getMembers().size();
+        int groupPaymentID = reserveRequestIDs(members + 1);
 
-        return result;
+        GroupPayment gp = g.dividePayment(groupPaymentID, amount, usersData::getUser);
+        usersData.changed(g.getOwnerID());
+        for (String memberID : g.getMembers()) {
+            usersData.changed(memberID);
+        }
+        Log.info("group.payment", "group", groupID, "payment", groupPaymentID, "members", members);
+
+        long smallest = gp.getSmallestShare();
+        long largest = gp.getLargestShare();
+        String shares = smallest == largest ? Money.format(largest) : Money.format(smallest) + " to " + Money.format(largest);
+        return String.format("Payment of %s € divided between the %d members of group %d! Group Payment ID: %d, payment requests %d to %d of %s € each.",
+                Money.format(amount), members, groupID, groupPaymentID, groupPaymentID + 1, groupPaymentID + members, shares);
     }
 
     /**
@@ -371,20 +548,9 @@ public class MoneyExchangeApp {
      */
     public String statusPayments(int groupID) throws ApplicationException {
 
-        Group g = user.getOwnedGroup(groupID);
+        Group g = getOwnedGroup(groupID);
 
-        if (g == null) {
-
-            // User is not owner of group and group exists
-            if (groupIDs.exists(groupID)) {
-                throw new ApplicationException("Error: You are not the submitted group's owner.");
-            }
-
-            // Group does not exist
-            throw new ApplicationException(String.format("Error: Group with ID: %d doesn't exist.", groupID));
-        }
-
-        HashMap<Integer, GroupPayment> activePayments = g.getActivePayments();
+        IntHashMap<GroupPayment> activePayments = g.getActivePayments();
 
         if (activePayments.isEmpty()) {
             return "No active payments!";
@@ -393,12 +559,16 @@ public class MoneyExchangeApp {
         StringBuilder sb = new StringBuilder();
         sb.append("Status:");
 
-        for (GroupPayment gp : activePayments.values()) {
-            sb.append(String.format("\nGroup Payment ID: %d", gp.getID()));
+        for (int id : sortedIDs(activePayments)) {
+            GroupPayment gp = activePayments.get(id);
+            sb.append("\nGroup Payment ID: ").append(gp.getID())
+                    .append(" | Owing: ").append(gp.getRemainingCount()).append(" of ").append(gp.getMembers().size())
+                    .append(" members, ");
+            Money.append(sb, gp.getRemainingAmount()).append(" €");
             sb.append("\nHasn't Payed: ");
 
-            for (User u : gp.getOwingMembers()) {
-                sb.append(String.format("%s |", u.getID()));
+            for (String memberID : gp.getOwingMembers()) {
+                sb.append(memberID).append(" |");
             }
         }
 
@@ -413,20 +583,9 @@ public class MoneyExchangeApp {
      */
     public String history(int groupID) throws ApplicationException {
 
-        Group g = user.getOwnedGroup(groupID);
+        Group g = getOwnedGroup(groupID);
 
-        if (g == null) {
-
-            // User is not owner of group and group exists
-            if (groupIDs.exists(groupID)) {
-                throw new ApplicationException("Error: You are not the submitted group's owner.");
-            }
-
-            // Group does not exist
-            throw new ApplicationException(String.format("Error: Group with ID: %d doesn't exist.", groupID));
-        }
-
-        HashMap<Integer, GroupPayment> finalizedPayments = g.getFinalizedPayments();
+        IntHashMap<GroupPayment> finalizedPayments = g.getFinalizedPayments();
 
         if (finalizedPayments.isEmpty()) {
             return "There aren't any finalized payments!";
@@ -435,44 +594,109 @@ public class MoneyExchangeApp {
         StringBuilder sb = new StringBuilder();
         sb.append("Finalized group payments:");
 
-        for (GroupPayment gp : finalizedPayments.values()) {
-            sb.append(String.format("\nGroup Payment of ID: %d with amount of %.2f €\nMembers: ", gp.getID(), gp.getTotalAmount()));
+        for (int id : sortedIDs(finalizedPayments)) {
+            GroupPayment gp = finalizedPayments.get(id);
+            sb.append("\nGroup Payment of ID: ").append(gp.getID()).append(" with amount of ");
+            Money.append(sb, gp.getTotalAmount()).append(" €\nMembers: ");
 
-            for (User u : gp.getMembers()) {
-                sb.append(String.format("%s |", u.getID()));
+            for (String memberID : gp.getMembers()) {
+                sb.append(memberID).append(" |");
             }
         }
 
         return sb.toString();
     }
 
+    /**
+     * Get a group the current user owns
+     *
+     * @param groupID - Group id
+     * @return the group
+     * @throws ApplicationException if the group doesn't exist or is owned by someone else
+     */
+    private Group getOwnedGroup(int groupID) throws ApplicationException {
+        if (!user.isOwner(groupID)) {
+
+            // User is not owner of group and group exists
+            if (groupIDs.exists(groupID)) {
+                throw new ApplicationException("Error: You are not the submitted group's owner.");
+            }
+
+            // Group does not exist
+            throw new ApplicationException(String.format("Error: Group with ID: %d doesn't exist.", groupID));
+        }
+
+        return groupIDs.getGroup(groupID);
+    }
+
     // Storage methods
 
+    /**
+     * Point the app at a published snapshot of the catalogs, to run read commands against it.
+     * Writes must never run against a snapshot.
+     *
+     * @param snapshot - Catalogs as of the last write
+     */
+    public void view(CatalogSnapshot snapshot) {
+        usersData = snapshot.getUsers();
+        groupIDs = snapshot.getGroups();
+        qrCodePayments = snapshot.getQRCodes();
+        user = usersData.getUser(user.getID());
+    }
+
     public void update(String password) throws IOException, ClassNotFoundException, NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
+        long start = System.nanoTime();
         usersData.getFromFile(password);
         groupIDs.getFromFile(password);
         qrCodePayments.getFromFile(password);
         user = usersData.getUser(user.getID());
+        CATALOG_LOAD.recordSince(start);
     }
 
     public void save(String password) throws IOException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+        long start = System.nanoTime();
         usersData.saveToFile(password);
         groupIDs.saveToFile(password);
         qrCodePayments.saveToFile(password);
+        CATALOG_SAVE.recordSince(start);
+    }
+
+    /**
+     * Reserve a contiguous range of request ids, reading and advancing the counter file once
+     *
+     * @param count - Number of ids to reserve
+     * @return the first reserved id
+     */
+    private int reserveRequestIDs(int count) throws IOException {
+        try (Scanner sc = new Scanner(new File(REQ_ID_FILENAME))) {
+            paymentRequestID = Integer.parseInt(sc.nextLine());
+        }
+
+        int first = paymentRequestID;
+        paymentRequestID += count;
+
+        try (FileWriter writer = new FileWriter(REQ_ID_FILENAME)) {
+            writer.write(String.valueOf(paymentRequestID));
+        }
+        return first;
     }
 
-    private void getReqID(String fileName) throws FileNotFoundException {
-        File reqIDFile = new File(fileName);
-        Scanner sc = new Scanner(reqIDFile);
-        int reqID = Integer.parseInt(sc.nextLine());
-        sc.close();
-        paymentRequestID = reqID;
+    // Ids in ascending order, so listings are stable
+    private static int[] sortedIDs(IntHashMap<?> map) {
+        int[] ids = map.keys();
+        Arrays.sort(ids);
+        return ids;
     }
 
-    private void updateReqID() throws IOException {
-        FileWriter writer = new FileWriter(REQ_ID_FILENAME);
-        writer.write(String.valueOf(paymentRequestID));
-        writer.close();
+    private static class CachedResponse {
+
+        private final long version;
+        private final String response;
+
+        private CachedResponse(long version, String response) {
+            this.version = version;
+            this.response = response;
+        }
     }
 
 }
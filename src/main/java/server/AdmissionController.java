@@ -0,0 +1,105 @@
+package main.java.server;
+
+import main.java.utils.Constants;
+
+import java.util.concurrent.*;
+
+/**
+ * Admission control for the handshake stage. Logins and registrations run on a bounded pool,
+ * and are rate limited per client address, and registrations also per username, so a reconnect
+ * storm can't take the CPU away from active sessions.
+ */
+public class AdmissionController {
+
+    private final ThreadPoolExecutor handshakePool;
+    private final ExecutorService rejectionPool;
+
+    private final ConcurrentMap<String, TokenBucket> addressBuckets;
+    private final ConcurrentMap<String, TokenBucket> registrationBuckets;
+
+    public AdmissionController() {
+        this.handshakePool = new ThreadPoolExecutor(Constants.HANDSHAKE_THREADS, Constants.HANDSHAKE_THREADS,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Constants.HANDSHAKE_QUEUE_CAPACITY),
+                daemonThreads("Handshake"), new ThreadPoolExecutor.AbortPolicy());
+        // Rejections are cheap, but still need the TLS handshake to tell the client when to retry
+        this.rejectionPool = new ThreadPoolExecutor(1, 1,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Constants.HANDSHAKE_QUEUE_CAPACITY),
+                daemonThreads("Rejection"), new ThreadPoolExecutor.AbortPolicy());
+        this.addressBuckets = new ConcurrentHashMap<>();
+        this.registrationBuckets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Run a handshake on the handshake pool
+     *
+     * @param handshake - Handshake to run
+     * @return false if the pool is saturated and the handshake was not accepted
+     */
+    public boolean submitHandshake(Runnable handshake) {
+        try {
+            handshakePool.execute(handshake);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run the rejection of a connection off the accepting thread
+     *
+     * @param rejection - Rejection to run
+     * @return false if too many rejections are pending and the connection should just be dropped
+     */
+    public boolean submitRejection(Runnable rejection) {
+        try {
+            rejectionPool.execute(rejection);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Take a login token for a client address
+     *
+     * @param address - Client address
+     * @return 0 if the login can go on, otherwise the milliseconds the client should wait
+     */
+    public long tryAcquireAddress(String address) {
+        return addressBuckets.computeIfAbsent(address,
+                k -> new TokenBucket(Constants.ADDRESS_LOGIN_BURST, Constants.ADDRESS_LOGINS_PER_SECOND)).tryAcquire();
+    }
+
+    /**
+     * Take a registration token for a username. Logins of registered users aren't limited per user,
+     * as the username is sent before any proof, so anyone could use up a user's tokens.
+     *
+     * @param username - Username to register
+     * @return 0 if the registration can go on, otherwise the milliseconds the client should wait
+     */
+    public long tryAcquireRegistration(String username) {
+        return registrationBuckets.computeIfAbsent(username,
+                k -> new TokenBucket(Constants.REGISTRATION_BURST, Constants.REGISTRATIONS_PER_SECOND)).tryAcquire();
+    }
+
+    public int pendingHandshakes() {
+        return handshakePool.getQueue().size() + handshakePool.getActiveCount();
+    }
+
+    /**
+     * Drop the buckets of clients that stopped logging in, so the maps don't keep growing
+     */
+    public void pruneIdleBuckets() {
+        addressBuckets.values().removeIf(TokenBucket::isFull);
+        registrationBuckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
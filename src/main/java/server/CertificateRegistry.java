@@ -0,0 +1,120 @@
+package main.java.server;
+
+import main.java.utils.CertificateCache;
+import main.java.utils.Constants;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registered users and their certificate files. The users file is read once at startup
+ * into a hash index; registrations write the certificate, append to the users file and
+ * add to the index, in that order.
+ */
+public class CertificateRegistry {
+
+    // Username -> certificate filename
+    private final Map<String, String> certificateFilenames;
+
+    public CertificateRegistry() {
+        this.certificateFilenames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load the index from the users file, creating the file if it doesn't exist
+     */
+    public void load() throws IOException {
+        File usersFile = new File(Constants.USERS_FILENAME);
+
+        // If file doesn't exist, create
+        if (!usersFile.exists()) {
+            usersFile.createNewFile();
+            return;
+        }
+
+        try (Scanner sc = new Scanner(usersFile)) {
+            while (sc.hasNextLine()) {
+                // ["username", "certificateFilename"]
+                String[] keyValuePair = sc.nextLine().split(":");
+                if (keyValuePair.length == 2) {
+                    certificateFilenames.put(keyValuePair[0], keyValuePair[1]);
+                }
+            }
+        }
+    }
+
+    public boolean isRegistered(String username) {
+        return certificateFilenames.containsKey(username);
+    }
+
+    /**
+     * Get the public key of a registered user
+     *
+     * @param username - Username
+     * @return the user's public key or null if the user isn't registered
+     */
+    public PublicKey getPublicKey(String username) throws IOException, CertificateException {
+        String certificateFilename = certificateFilenames.get(username);
+        if (certificateFilename == null) {
+            return null;
+        }
+
+        PublicKey pk = CertificateCache.getPublicKey(username, certificateFilename);
+        if (pk == null) {
+            throw new FileNotFoundException("Missing certificate file " + certificateFilename);
+        }
+        return pk;
+    }
+
+    /**
+     * Register a user, storing its certificate
+     *
+     * @param username    - Username
+     * @param certificate - The user's parsed certificate
+     */
+    public void register(String username, Certificate certificate) throws IOException, CertificateEncodingException {
+        String certificateFilename = CertificateCache.certificateFilename(username);
+
+        // Write to a temporary file first, so a crash never leaves a partial certificate behind
+        Path certificatePath = Paths.get(certificateFilename);
+        Path temporaryPath = Paths.get(certificateFilename + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(certificate.getEncoded()));
+            channel.force(false);
+        }
+        Files.move(temporaryPath, certificatePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Certificate may have been replaced, so refresh the cached key
+        CertificateCache.put(username, certificate);
+
+        // Only list the user once its certificate is on disk
+        ByteBuffer line = ByteBuffer.wrap(String.format("%s:%s\n", username, certificateFilename).getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            try (FileChannel channel = FileChannel.open(Paths.get(Constants.USERS_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writeFully(channel, line);
+                // Registration must survive a crash before the user is told it succeeded
+                channel.force(false);
+            }
+            certificateFilenames.put(username, certificateFilename);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package main.java.server;
+
+import main.java.utils.Constants;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Issues the nonces clients sign to log in. Nonces are 128-bit, drawn from a per-thread SecureRandom,
+ * expire after a while and can only be redeemed once.
+ */
+public class ChallengeService {
+
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+
+    // Outstanding nonce -> expiry time
+    private final ConcurrentMap<ByteBuffer, Long> outstanding;
+
+    public ChallengeService() {
+        this.outstanding = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Create a new nonce
+     *
+     * @return the nonce bytes
+     */
+    public byte[] issue() {
+        byte[] nonce = new byte[Constants.NONCE_BYTES];
+        randoms.get().nextBytes(nonce);
+        outstanding.put(ByteBuffer.wrap(nonce), System.currentTimeMillis() + Constants.NONCE_TTL_MS);
+        return nonce;
+    }
+
+    /**
+     * Use up a nonce
+     *
+     * @param nonce - A nonce previously issued
+     * @return true if the nonce was outstanding and hasn't expired
+     */
+    public boolean redeem(byte[] nonce) {
+        Long expiry = outstanding.remove(ByteBuffer.wrap(nonce));
+        return expiry != null && expiry >= System.currentTimeMillis();
+    }
+
+    public int outstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * Drop nonces that were never redeemed
+     */
+    public void pruneExpired() {
+        long now = System.currentTimeMillis();
+        outstanding.values().removeIf(expiry -> expiry < now);
+    }
+
+}
@@ -1,17 +1,26 @@
 package main.java.server;
 
+import main.java.business.catalogs.CatalogSnapshot;
 import main.java.business.catalogs.GroupIDRepository;
 import main.java.business.catalogs.QRCodeRepository;
 import main.java.business.catalogs.UserRepository;
 import main.java.business.domain.QRCodePayment;
 import main.java.business.domain.User;
 import main.java.facade.exceptions.ApplicationException;
+import main.java.facade.startup.AuditLogIndex;
 import main.java.facade.startup.Block;
+import main.java.facade.startup.BlockLogWriter;
+import main.java.facade.startup.MerkleTree;
 import main.java.facade.startup.MoneyExchangeApp;
+import main.java.utils.Command;
 import main.java.utils.Constants;
+import main.java.utils.LatencyHistogram;
+import main.java.utils.Log;
+import main.java.utils.Metrics;
+import main.java.utils.Money;
+import main.java.utils.Opcode;
+import main.java.utils.SignatureVerifier;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLServerSocket;
@@ -19,24 +28,52 @@ import javax.net.ssl.SSLServerSocketFactory;
 import java.io.*;
 import java.net.Socket;
 import java.security.*;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
-import java.security.spec.InvalidKeySpecException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MoneyExchangeServer {
 
+    private static final LatencyHistogram HANDSHAKE = Metrics.histogram("handshake");
+    private static final LatencyHistogram LOCK_WAIT = Metrics.histogram("lock.catalogs.wait");
+    private static final LatencyHistogram LOCK_HOLD = Metrics.histogram("lock.catalogs.hold");
+
+    // Opcode ordinal -> latency histogram of the command
+    private static final LatencyHistogram[] COMMAND_LATENCY = commandLatencies();
+    private static final LatencyHistogram UNKNOWN_COMMAND_LATENCY = Metrics.histogram("command.unknown");
+    // Read commands polled often enough to answer from the session's response cache
+    private static final Set<Opcode> CACHED_COMMANDS = EnumSet.of(Opcode.BALANCE, Opcode.GROUPS, Opcode.STATUS_PAYMENTS, Opcode.HISTORY);
+    private static final LongAdder CACHE_HITS = Metrics.counter("responses.cache.hits");
+    private static final LongAdder CACHE_MISSES = Metrics.counter("responses.cache.misses");
+
     private final UserRepository usersData;
     private final GroupIDRepository groupIDs;
     private final QRCodeRepository qrCodePayments;
-    private final HashMap<String, Integer> activeUsers;
+    // Catalogs as of the last write, which read commands use without taking the catalog locks
+    private volatile CatalogSnapshot snapshot;
+    private final CertificateRegistry certificates;
+    private final SessionRegistry sessions;
+    private final AdmissionController admission;
+    private final ChallengeService challenges;
     private final int paymentRequestID;
+    // Opcode ordinal -> handler of the command
+    private final Handler[] handlers;
 
     private PublicKey serverPublicKey;
 
-    private Block block;
+    private BlockLogWriter blockLog;
+    private final AuditLogIndex auditLogIndex;
 
     public MoneyExchangeServer() {
 
@@ -48,8 +85,55 @@ public class MoneyExchangeServer {
         usersData = new UserRepository();
         groupIDs = new GroupIDRepository();
         qrCodePayments = new QRCodeRepository();
-        activeUsers = new HashMap<>();
+        certificates = new CertificateRegistry();
+        sessions = new SessionRegistry();
+        admission = new AdmissionController();
+        challenges = new ChallengeService();
+        auditLogIndex = new AuditLogIndex();
         paymentRequestID = 0;
+        handlers = handlers();
+    }
+
+    private static LatencyHistogram[] commandLatencies() {
+        LatencyHistogram[] latencies = new LatencyHistogram[Opcode.values().length];
+        for (Opcode opcode : Opcode.values()) {
+            latencies[opcode.ordinal()] = Metrics.histogram("command." + opcode.getLongName());
+        }
+        return latencies;
+    }
+
+    /**
+     * Runs a parsed command against the app of the user who sent it
+     */
+    @FunctionalInterface
+    private interface Handler {
+        String handle(MoneyExchangeApp app, Command command) throws ApplicationException, IOException, ClassNotFoundException, GeneralSecurityException;
+    }
+
+    /**
+     * Build the handler table. Commands are well formed by the time a handler runs, so their
+     * arguments can be read as typed values.
+     */
+    private Handler[] handlers() {
+        Handler[] table = new Handler[Opcode.values().length];
+        table[Opcode.BALANCE.ordinal()] = (app, command) -> app.getBalance();
+        table[Opcode.MAKE_PAYMENT.ordinal()] = (app, command) -> app.makePayment(command.arg(0), command.amountArg(1));
+        table[Opcode.REQUEST_PAYMENT.ordinal()] = (app, command) -> app.requestPayment(command.arg(0), command.amountArg(1));
+        table[Opcode.VIEW_REQUESTS.ordinal()] = (app, command) ->
+                command.hasArg(0) ? app.viewRequests(Integer.parseInt(command.arg(0))) : app.viewRequests();
+        table[Opcode.PAY_REQUEST.ordinal()] = (app, command) -> app.payRequest(command.intArg(0));
+        table[Opcode.OBTAIN_QR_CODE.ordinal()] = (app, command) -> app.obtainQRCode(command.amountArg(0));
+        table[Opcode.CONFIRM_QR_CODE.ordinal()] = (app, command) -> app.confirmQRCode(command.intArg(0));
+        table[Opcode.NEW_GROUP.ordinal()] = (app, command) -> app.createGroup(command.intArg(0));
+        table[Opcode.ADD_USER.ordinal()] = (app, command) -> app.addUser(command.arg(0), command.intArg(1));
+        table[Opcode.GROUPS.ordinal()] = (app, command) -> app.displayGroups();
+        table[Opcode.DIVIDE_PAYMENT.ordinal()] = (app, command) -> app.dividePayment(command.intArg(0), command.amountArg(1));
+        table[Opcode.STATUS_PAYMENTS.ordinal()] = (app, command) -> app.statusPayments(command.intArg(0));
+        table[Opcode.HISTORY.ordinal()] = (app, command) -> app.history(command.intArg(0));
+        table[Opcode.LEDGER.ordinal()] = (app, command) -> ledger(app.getUserID(), command.hasArg(0) ? command.intArg(0) : 1);
+        table[Opcode.TX_PROOF.ordinal()] = (app, command) -> transactionProof(app.getUserID(), command.intArg(0), command.intArg(1));
+        table[Opcode.FIND_BLOCKS.ordinal()] = (app, command) -> findBlocks(command.arg(0), command.hasArg(1) ? command.arg(1) : command.arg(0));
+        return table;
     }
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
@@ -88,53 +172,139 @@ public class MoneyExchangeServer {
         server.startServer(port, cipherPassword, keystore, keystorePassword);
     }
 
-    private static boolean isValidConfirmQRCode(String[] commandParts) {
-        String type = commandParts[0];
-        try {
-            if ((type.equals("c") || type.equals("confirmqrcode")) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
-            }
-            return false;
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Publish the catalogs as they are now for read commands, then move the versions of the users
+     * whose reads changed. Callers must hold the users catalog lock, which every writer takes.
+     */
+    private void publish() {
+        snapshot = CatalogSnapshot.of(usersData, groupIDs, qrCodePayments);
+        usersData.publishChanges();
+    }
+
+    // Key of a command's response in the session's response cache, or null if it isn't cached
+    private static String cacheKey(Command command) {
+        if (!command.isWellFormed() || !CACHED_COMMANDS.contains(command.getOpcode())) {
+            return null;
         }
+        String name = command.getOpcode().getShortName();
+        return command.hasArg(0) ? name + " " + command.intArg(0) : name;
     }
 
-    private static void sendStatus(boolean success, ObjectOutputStream out) throws IOException {
+    private static boolean sendStatus(boolean success, ObjectOutputStream out) throws IOException {
 
         if (success) {
             out.writeObject(1);
         } else {
             out.writeObject(-1);
-            System.out.println("Trokos Server Thread has ended");
-            Thread.currentThread().stop();
+            Log.debug("status.failed");
         }
 
+        return success;
+    }
+
+    private static void sendRetry(long retryAfter, ObjectOutputStream out) throws IOException {
+        out.writeObject(Constants.RETRY_STATUS);
+        out.writeObject(retryAfter);
+        Log.info("retry", "afterMs", retryAfter);
+    }
+
+    /**
+     * Tell a client the server can't take its login right now. Runs on the rejection pool.
+     *
+     * @param socket     - Client connection
+     * @param retryAfter - Milliseconds the client should wait before retrying
+     */
+    private static void rejectConnection(Socket socket, long retryAfter) {
+        try (Socket s = socket) {
+            s.setSoTimeout(Constants.HANDSHAKE_TIMEOUT_MS);
+            ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+            ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+
+            // Read the user id, so the client is waiting for a status when we reply
+            in.readObject();
+            sendRetry(retryAfter, out);
+        } catch (IOException | ClassNotFoundException e) {
+            Log.debug("rejected.disconnected");
+        }
     }
 
     private static SignedObject verifySignature(ObjectInputStream in, ObjectOutputStream out, PublicKey pk) throws IOException, ClassNotFoundException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         SignedObject signedObject = (SignedObject) in.readObject();
-        sendStatus(signedObject.verify(pk, Signature.getInstance("SHA256withRSA")), out);
-        return signedObject;
+        return sendStatus(SignatureVerifier.verify(signedObject, pk), out) ? signedObject : null;
     }
 
-    private static boolean isTransaction(String[] commandParts) {
-        String type = commandParts[0];
+    /**
+     * Tell the user why a transaction the client didn't sign would fail. It's refused anyway, but
+     * the client only declines to sign when it expects the command to fail, e.g. for an unknown
+     * request or QR code. Checked against the latest snapshot, so nothing is locked or changed.
+     *
+     * @param reader  - App of the user who sent the transaction, for reading snapshots
+     * @param command - The transaction
+     * @return the error the transaction would fail with, or an error saying it must be signed
+     */
+    private String tryUnsigned(MoneyExchangeApp reader, Command command) {
+        if (!command.hasValidArity()) {
+            return Constants.INCORRECT_NUM_ARGS_MESSAGE;
+        }
+
+        if (!command.isWellFormed()) {
+            return "Error: Please insert the correct type of arguments!";
+        }
+
+        reader.view(snapshot);
         try {
-            if ((type.equals("m") || type.equals("makepayment")) && commandParts.length == 3) {
-                Integer.parseInt(commandParts[2]);
-                return true;
-            } else if ((type.equals("p") || type.equals("payrequest")) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
-            } else if ((type.equals("c") || type.equals("confirmqrode")) && commandParts.length == 2) {
-                Integer.parseInt(commandParts[1]);
-                return true;
+            switch (command.getOpcode()) {
+                case MAKE_PAYMENT:
+                    reader.checkPayment(command.arg(0), command.amountArg(1));
+                    break;
+                case PAY_REQUEST:
+                    reader.checkPayRequest(command.intArg(0));
+                    break;
+                case CONFIRM_QR_CODE:
+                    reader.checkConfirmQRCode(command.intArg(0));
+                    break;
+                default:
+                    break;
             }
-            return false;
+        } catch (ApplicationException e) {
+            return e.getMessage();
+        }
+
+        return "Error: The transaction wasn't signed.";
+    }
+
+    /**
+     * Queue a transaction for the log
+     *
+     * @param username     - User who sent the transaction
+     * @param signedObject - The transaction, as signed by the user
+     * @return completes once the transaction is on disk, or null if the signed transaction isn't well formed
+     */
+    private CompletableFuture<Void> logTransaction(String username, SignedObject signedObject) throws IOException, ClassNotFoundException, InterruptedException {
+        String[] userAndValue = ((String) signedObject.getObject()).split("-");
+        if (userAndValue.length != 2) {
+            return null;
+        }
+        return blockLog.append(username, canonicalAmount(userAndValue[1]), userAndValue[0], signedObject);
+    }
+
+    // The response to a logged transaction, or an error if it never reached the log
+    private static String awaitLogged(CompletableFuture<Void> logged, String response) throws InterruptedException {
+        try {
+            logged.get();
+            return response;
+        } catch (ExecutionException e) {
+            Log.error("transaction.unlogged", "error", e.getCause().getMessage());
+            return "Error: The transaction was made but couldn't be written to the transaction log.";
+        }
+    }
+
+    // Amounts are logged with two decimal places, whatever form the client signed them in
+    private static String canonicalAmount(String signedAmount) {
+        try {
+            return Money.format(Money.parse(signedAmount));
         } catch (NumberFormatException e) {
-            return false;
+            return signedAmount;
         }
     }
 
@@ -150,17 +320,80 @@ public class MoneyExchangeServer {
 
             getServerPublicKey();
 
+            // Index registered users
+            certificates.load();
+
             // Check log files for data
-            fetchLogData(keystore, keystorePassword);
+            Block block = fetchLogData(keystore, keystorePassword);
+
+            // Start the transaction log writer
+            BlockLogWriter.Durability durability = BlockLogWriter.Durability.valueOf(
+                    System.getProperty(Constants.BLOCK_LOG_DURABILITY_PROP, "enqueue").toUpperCase());
+            blockLog = new BlockLogWriter(block, auditLogIndex, keystore, keystorePassword, durability, Constants.BLOCK_LOG_QUEUE_CAPACITY);
+            blockLog.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    blockLog.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
 
             // Get data from file, in case it exists
             usersData.getFromFile(cypherPassword);
             groupIDs.getFromFile(cypherPassword);
             qrCodePayments.getFromFile(cypherPassword);
+            publish();
+
+            // Disconnect idle sessions
+            ScheduledExecutorService sessionEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SessionEvictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sessionEvictor.scheduleAtFixedRate(() -> sessions.evictIdle(Constants.SESSION_IDLE_TIMEOUT_MS),
+                    Constants.SESSION_EVICTION_PERIOD_MS, Constants.SESSION_EVICTION_PERIOD_MS, TimeUnit.MILLISECONDS);
+
+            // Forget rate limits of clients that went quiet
+            sessionEvictor.scheduleAtFixedRate(admission::pruneIdleBuckets,
+                    Constants.SESSION_EVICTION_PERIOD_MS, Constants.SESSION_EVICTION_PERIOD_MS, TimeUnit.MILLISECONDS);
+            sessionEvictor.scheduleAtFixedRate(challenges::pruneExpired,
+                    Constants.NONCE_TTL_MS, Constants.NONCE_TTL_MS, TimeUnit.MILLISECONDS);
+
+            // Publish metrics to a file, for whoever is tuning the server
+            Metrics.gauge("sessions.active", sessions::size);
+            Metrics.gauge("handshakes.pending", admission::pendingHandshakes);
+            Metrics.gauge("blocklog.queue", blockLog::queueDepth);
+            Metrics.gauge("nonces.outstanding", challenges::outstandingCount);
+            sessionEvictor.scheduleAtFixedRate(MoneyExchangeServer::dumpMetrics,
+                    Constants.METRICS_DUMP_PERIOD_MS, Constants.METRICS_DUMP_PERIOD_MS, TimeUnit.MILLISECONDS);
 
             while (true) {
-                ServerThread newServerThread = new ServerThread(ss.accept(), keystore, keystorePassword, cypherPassword);
-                newServerThread.start();
+                Socket socket = ss.accept();
+                Metrics.counter("connections.accepted").increment();
+
+                long retryAfter = admission.tryAcquireAddress(socket.getInetAddress().getHostAddress());
+                if (retryAfter > 0) {
+                    reject(socket, retryAfter);
+                    continue;
+                }
+
+                // Handshake on the bounded pool, then serve the session on its own thread
+                ServerThread newServerThread = new ServerThread(socket, cypherPassword);
+                boolean admitted = admission.submitHandshake(() -> {
+                    long start = System.nanoTime();
+                    boolean loggedIn = newServerThread.handshake();
+                    HANDSHAKE.recordSince(start);
+                    if (loggedIn) {
+                        newServerThread.start();
+                    } else {
+                        Metrics.counter("handshakes.failed").increment();
+                    }
+                });
+
+                if (!admitted) {
+                    reject(socket, Constants.BUSY_RETRY_AFTER_MS);
+                }
             }
 
         } catch (Exception e) {
@@ -168,20 +401,36 @@ public class MoneyExchangeServer {
         }
     }
 
+    private void reject(Socket socket, long retryAfter) throws IOException {
+        Metrics.counter("connections.rejected").increment();
+        if (!admission.submitRejection(() -> rejectConnection(socket, retryAfter))) {
+            // Too busy to even reply
+            socket.close();
+        }
+    }
+
+    private static void dumpMetrics() {
+        try {
+            Metrics.dump(Constants.METRICS_FILENAME);
+        } catch (IOException e) {
+            Log.warn("metrics.failed", "error", e.getMessage());
+        }
+    }
+
     private void getServerPublicKey() throws FileNotFoundException, CertificateException {
         FileInputStream fis = new FileInputStream(Constants.SERVER_CERTIFICATE_FILENAME);
         CertificateFactory cf = CertificateFactory.getInstance("X509");
         serverPublicKey = cf.generateCertificate(fis).getPublicKey();
     }
 
-    private void fetchLogData(String keystore, String keystorePassword) throws IOException, ClassNotFoundException, UnrecoverableKeyException, CertificateException, KeyStoreException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+    private Block fetchLogData(String keystore, String keystorePassword) throws IOException, ClassNotFoundException, UnrecoverableKeyException, CertificateException, KeyStoreException, NoSuchAlgorithmException, SignatureException, InvalidKeyException, InterruptedException {
 
         File logsFolder = new File("./logs");
-        File[] blockFiles = logsFolder.listFiles();
+        // Temporary files are blocks whose write never completed, the block file itself is still intact
+        File[] blockFiles = logsFolder.listFiles((folder, name) -> name.matches("block_\\d+\\.blk"));
 
         if (blockFiles.length == 0) {
-            block = new Block();
-            return;
+            return new Block();
         }
 
         List<String> filenames = new ArrayList<>();
@@ -189,10 +438,15 @@ public class MoneyExchangeServer {
             filenames.add(file.getName());
         }
 
-        Collections.sort(filenames);
+        // Sort by block number, block_10 comes after block_9
+        filenames.sort(Comparator.comparingLong(filename -> Long.parseLong(filename.replaceAll("\\D", ""))));
 
         byte[] previousHash = new byte[32];
 
+        // Transactions are verified in batches while the next blocks are read, so at most two batches are held
+        VerificationBatch batch = new VerificationBatch();
+        VerificationBatch verifying = null;
+
         for (int i = 0; i < filenames.size(); i++) {
             String filename = filenames.get(i);
 
@@ -215,16 +469,34 @@ public class MoneyExchangeServer {
                     System.exit(-1);
                 }
 
-                if (!currentBlock.allTransactionsValid()) {
-                    System.out.println("Blockchain integrity corrupted! Error found in transaction signature. Server shutting down...");
+                if (!currentBlock.verifyHeaderSignature(serverPublicKey)) {
+                    System.out.println("Blockchain integrity corrupted! Error found in block header signature. Server shutting down...");
                     System.exit(-1);
                 }
 
+                if (!currentBlock.verifyMerkleRoot()) {
+                    System.out.println("Blockchain integrity corrupted! Error found in merkle root. Server shutting down...");
+                    System.exit(-1);
+                }
+
+                batch.add(currentBlock);
+                if (batch.isFull()) {
+                    checkTransactionSignatures(verifying);
+                    batch.submit();
+                    verifying = batch;
+                    batch = new VerificationBatch();
+                }
+
                 previousHash = currentBlock.calculateHash();
+                auditLogIndex.addBlock(currentBlock);
             }
 
         }
 
+        checkTransactionSignatures(verifying);
+        batch.submit();
+        checkTransactionSignatures(batch);
+
         String maxFilename = filenames.get(filenames.size() - 1);
 
         System.out.println("Fetched block: " + maxFilename);
@@ -232,271 +504,413 @@ public class MoneyExchangeServer {
         FileInputStream blockDataFileStream = new FileInputStream(Constants.LOGS_FOLDER + maxFilename);
         ObjectInputStream blockDataObjectStream = new ObjectInputStream(blockDataFileStream);
 
-        block = (Block) blockDataObjectStream.readObject();
+        Block block = (Block) blockDataObjectStream.readObject();
 
         // Check if block is already full
         block.verifyBlockIntegrity(keystore, keystorePassword);
+        return block;
     }
 
-    private void storeUserCertificate(String username) throws IOException {
-        String certificateFileName = Constants.CERTIFICATES_FOLDER + username + "Certificate.cer";
-        ServerUtilities.writeToFile(Constants.USERS_FILENAME, String.format("%s:%s\n", username, certificateFileName), true);
-    }
+    /**
+     * Wait for a batch of logged transactions to be verified, shutting down if any signature is invalid
+     *
+     * @param batch - Submitted batch, or null if there is none
+     */
+    private static void checkTransactionSignatures(VerificationBatch batch) throws InterruptedException {
+        if (batch == null) {
+            return;
+        }
 
-    private Certificate getCertificate(String username, File usersFile) throws FileNotFoundException, CertificateException {
+        long blockNum = batch.awaitFirstInvalidBlock();
+        if (blockNum >= 0) {
+            System.out.printf("Blockchain integrity corrupted! Error found in transaction signature of block %d. Server shutting down...%n", blockNum);
+            System.exit(-1);
+        }
+    }
 
-        Scanner sc = new Scanner(usersFile);
-        String certificateFilename = null;
-        while (sc.hasNextLine()) {
+    /**
+     * Transactions of consecutive logged blocks, with their senders' keys, verified together
+     */
+    private static class VerificationBatch {
+
+        private final List<SignedObject> signedObjects = new ArrayList<>();
+        private final List<PublicKey> senderKeys = new ArrayList<>();
+        // Block number of each transaction
+        private long[] blockNums = new long[Constants.LOG_VERIFY_BATCH_SIZE];
+        private CompletableFuture<List<Integer>> invalid;
+
+        void add(Block block) throws IOException, CertificateException {
+            int size = signedObjects.size();
+            int newSize = size + block.getTransactions().size();
+            if (newSize > blockNums.length) {
+                blockNums = Arrays.copyOf(blockNums, Math.max(newSize, blockNums.length * 2));
+            }
+            Arrays.fill(blockNums, size, newSize, block.getBlockNum());
 
-            // ["username", "certificateFilename"]
-            String[] keyValuePair = sc.nextLine().split(":");
+            signedObjects.addAll(block.getTransactionSignedObjects());
+            senderKeys.addAll(block.getSenderKeys());
+        }
 
-            if (username.equals(keyValuePair[0])) {
-                certificateFilename = keyValuePair[1];
-                break;
-            }
+        boolean isFull() {
+            return signedObjects.size() >= Constants.LOG_VERIFY_BATCH_SIZE;
         }
 
-        if (certificateFilename == null) {
-            return null;
+        void submit() {
+            invalid = SignatureVerifier.submitAll(signedObjects, senderKeys);
         }
 
-        FileInputStream fis = new FileInputStream(certificateFilename);
-        CertificateFactory cf = CertificateFactory.getInstance("X509");
-        return cf.generateCertificate(fis);
+        /**
+         * @return the number of the block holding the first invalid transaction, or -1 if every one is valid
+         */
+        long awaitFirstInvalidBlock() throws InterruptedException {
+            try {
+                List<Integer> failures = invalid.get();
+                return failures.isEmpty() ? -1 : blockNums[failures.get(0)];
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
     }
 
-    private long sendNonce(ObjectOutputStream out) throws IOException {
-        long nonce = new Random().nextLong();
+    private byte[] sendNonce(ObjectOutputStream out) throws IOException {
+        byte[] nonce = challenges.issue();
         // Send nonce
         out.writeObject(nonce);
-        System.out.println("Sent nonce");
+        Log.debug("nonce.sent");
         return nonce;
     }
 
-    private void verifyNonce(long nonce, ObjectInputStream in, ObjectOutputStream out) throws IOException, ClassNotFoundException {
+    private boolean verifyNonce(byte[] nonce, ObjectInputStream in, ObjectOutputStream out) throws IOException, ClassNotFoundException {
         // Verify nonce
-        long clientNonce = (long) in.readObject();
-        System.out.println("Client nonce received!");
-        sendStatus(clientNonce == nonce, out);
+        byte[] clientNonce = (byte[]) in.readObject();
+        Log.debug("nonce.echoed");
+        return sendStatus(MessageDigest.isEqual(clientNonce, nonce), out);
     }
 
-    private PublicKey verifyEncryptedNonce(String username, long nonce, Certificate userCertificate, ObjectInputStream in, ObjectOutputStream out) throws IOException, ClassNotFoundException, NoSuchAlgorithmException, InvalidKeyException, CertificateEncodingException, SignatureException {
+    private static byte[] readSignedNonce(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // Get signed nonce
         byte[] signedNonce = (byte[]) in.readObject();
-        System.out.println("Received signed nonce");
-        // If no certificate associated to user, read one from the user
-        if (userCertificate == null) {
-            userCertificate = (Certificate) in.readObject();
-            // Creating certificate file
-            ServerUtilities.createCertificateFile(username, userCertificate);
-        }
-
-        PublicKey pk = userCertificate.getPublicKey();
-
-        // Verify signature
-        Signature s = Signature.getInstance("SHA256withRSA");
-        s.initVerify(pk);
-        byte[] buf = ServerUtilities.longToBytes(nonce);
-        s.update(buf);
-        // If decrypted nonce is not equal to nonce, leave
-        sendStatus(s.verify(signedNonce), out);
+        Log.debug("nonce.signed");
+        return signedNonce;
+    }
 
-        return pk;
+    private boolean verifyEncryptedNonce(byte[] nonce, byte[] signedNonce, PublicKey pk) throws InvalidKeyException, SignatureException {
+        // Nonce must not have expired or been used before
+        return challenges.redeem(nonce) && SignatureVerifier.verify(nonce, signedNonce, pk);
     }
 
-    private String action(MoneyExchangeApp app, String fullCommand, String cypherPassword) throws ClassNotFoundException, IOException, NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidAlgorithmParameterException {
+    /**
+     * Read the certificate of a registering user, sent as DER bytes
+     *
+     * @return the parsed certificate, or null if it is too big or not a valid X.509 certificate
+     */
+    private static X509Certificate readCertificate(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        byte[] encoded = (byte[]) in.readObject();
+        Log.debug("certificate.received", "bytes", encoded.length);
 
-        // Update catalogs
-        app.update(cypherPassword);
+        if (encoded.length > Constants.MAX_CERTIFICATE_BYTES) {
+            return null;
+        }
 
         try {
+            CertificateFactory cf = CertificateFactory.getInstance("X509");
+            return (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(encoded));
+        } catch (CertificateException | ClassCastException e) {
+            Log.warn("certificate.invalid", "bytes", encoded.length);
+            return null;
+        }
+    }
 
-            // Ex: Take makepayment 123 500 and store
-            String[] commandArgs = fullCommand.split(" ");
+    /**
+     * Run a client command, reloading the catalogs first if it touches them
+     *
+     * @param app            - App of the user sending the command
+     * @param fullCommand    - Command and its arguments
+     * @param cypherPassword - Password the catalogs are encrypted with
+     * @return the response to send the user
+     */
+    public String action(MoneyExchangeApp app, String fullCommand, String cypherPassword) throws ClassNotFoundException, IOException, GeneralSecurityException, NoSuchPaddingException {
+        return action(app, Command.parse(fullCommand), cypherPassword);
+    }
 
-            // Ex: Save option makepayment
-            String option = commandArgs[0];
+    /**
+     * Run a parsed client command, reloading the catalogs first if it touches them
+     *
+     * @param app            - App of the user sending the command
+     * @param command        - Parsed command
+     * @param cypherPassword - Password the catalogs are encrypted with
+     * @return the response to send the user
+     */
+    public String action(MoneyExchangeApp app, Command command, String cypherPassword) throws ClassNotFoundException, IOException, GeneralSecurityException, NoSuchPaddingException {
+        Opcode opcode = command.getOpcode();
+        Handler handler = opcode == null ? null : handlers[opcode.ordinal()];
+
+        if (handler == null) {
+            return "Error: Please insert a valid command.";
+        }
 
-            String arg1 = null;
-            String arg2 = null;
+        // Update catalogs, unless reading a snapshot
+        if (opcode.touchesCatalogs() && !opcode.isReadOnly()) {
+            app.update(cypherPassword);
+        }
 
-            if (commandArgs.length == 2 || commandArgs.length == 3) {
-                arg1 = commandArgs[1];
-            }
+        if (!command.hasValidArity()) {
+            return Constants.INCORRECT_NUM_ARGS_MESSAGE;
+        }
 
-            if (commandArgs.length == 3) {
-                arg2 = commandArgs[2];
+        try {
+            if (!command.isWellFormed()) {
+                throw new NumberFormatException();
             }
+            return handler.handle(app, command);
 
-            // Return balance
-            if (option.equals("b") || option.equals("balance")) {
+        } catch (NumberFormatException e) {
+            return "Error: Please insert the correct type of arguments!";
+        } catch (ApplicationException e) {
+            return e.getMessage();
+        }
+    }
 
-                if (commandArgs.length != 1) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.getBalance();
-                }
-            } else if (option.equals("m") || option.equals("makepayment")) {
+    /**
+     * Get a page of the user's logged transactions, newest first
+     *
+     * @param userID - User id
+     * @param page   - Page number, starting at 1
+     * @return a string with the transactions on that page
+     */
+    private String ledger(String userID, int page) throws ApplicationException {
+        int total = auditLogIndex.countUserTransactions(userID);
+
+        if (total == 0) {
+            return "There are no logged transactions.";
+        }
 
-                if (commandArgs.length != 3) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.makePayment(arg1, Float.parseFloat(arg2));
-                }
-            } else if (option.equals("r") || option.equals("requestpayment")) {
+        int pages = (total + Constants.LEDGER_PAGE_SIZE - 1) / Constants.LEDGER_PAGE_SIZE;
+        if (page < 1 || page > pages) {
+            throw new ApplicationException(String.format("Error: Page %d doesn't exist. There are %d pages.", page, pages));
+        }
 
-                if (commandArgs.length != 3) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.requestPayment(arg1, Float.parseFloat(arg2), null);
-                }
-            } else if (option.equals("v") || option.equals("viewrequests")) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Logged transactions (page %d of %d):", page, pages));
+        for (AuditLogIndex.Record record : auditLogIndex.getUserTransactions(userID, page, Constants.LEDGER_PAGE_SIZE)) {
+            sb.append(String.format("\nBlock %d | Transaction %d | %s | %s sent %s€ to %s", record.getBlockNum(), record.getIndex(),
+                    Constants.DATE_FORMATTER.format(Instant.ofEpochMilli(record.getTime())),
+                    record.getSendingUser(), record.getValue(), record.getReceivingUser()));
+        }
 
-                if (commandArgs.length != 1) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.viewRequests();
-                }
-            } else if (option.equals("p") || option.equals("payrequest")) {
+        return sb.toString();
+    }
 
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.payRequest(Integer.parseInt(arg1));
-                }
-            } else if (option.equals("o") || option.equals("obtainqrcode")) {
+    /**
+     * Find the blocks holding transactions made between two dates, from the index
+     *
+     * @param fromDate - First day, as yyyy-MM-dd
+     * @param toDate   - Last day, as yyyy-MM-dd
+     * @return a string with the block numbers, in log order
+     */
+    private String findBlocks(String fromDate, String toDate) throws ApplicationException {
+        LocalDate first;
+        LocalDate last;
+        try {
+            first = LocalDate.parse(fromDate);
+            last = LocalDate.parse(toDate);
+        } catch (DateTimeParseException e) {
+            throw new ApplicationException("Error: Please insert dates as yyyy-MM-dd.");
+        }
 
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.obtainQRCode(Float.parseFloat(arg1));
-                }
-            } else if (option.equals("c") || option.equals("confirmqrcode")) {
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.confirmQRCode(Integer.parseInt(arg1));
-                }
-            } else if (option.equals("n") || option.equals("newgroup")) {
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.createGroup(Integer.parseInt(arg1));
-                }
-            } else if (option.equals("a") || option.equals("addu")) {
+        if (last.isBefore(first)) {
+            throw new ApplicationException("Error: The end date can't be before the start date.");
+        }
 
-                if (commandArgs.length != 3) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.addUser(arg1, Integer.parseInt(arg2));
-                }
-            } else if (option.equals("g") || option.equals("groups")) {
+        // Whole days, in the server's time zone like the logged times
+        ZoneId zone = ZoneId.systemDefault();
+        long from = first.atStartOfDay(zone).toInstant().toEpochMilli();
+        long to = last.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli() - 1;
+        List<Long> blocks = auditLogIndex.getBlocksBetween(from, to);
 
-                if (commandArgs.length != 1) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.displayGroups();
-                }
-            } else if (option.equals("d") || option.equals("dividepayment")) {
+        if (blocks.isEmpty()) {
+            return String.format("There are no logged transactions from %s to %s.", first, last);
+        }
 
-                if (commandArgs.length != 3) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.dividePayment(Integer.parseInt(arg1), Float.parseFloat(arg2));
-                }
-            } else if (option.equals("s") || option.equals("statuspayments")) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Blocks with transactions from %s to %s: ", first, last));
+        for (int i = 0; i < blocks.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(blocks.get(i));
+        }
 
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.statusPayments(Integer.parseInt(arg1));
-                }
-            } else if (option.equals("h") || option.equals("history")) {
+        return sb.toString();
+    }
 
-                if (commandArgs.length != 2) {
-                    return Constants.INCORRECT_NUM_ARGS_MESSAGE;
-                } else {
-                    return app.history(Integer.parseInt(arg1));
-                }
-            }
-            return "Error: Please insert a valid command.";
+    /**
+     * Build the inclusion proof of a transaction in a sealed block
+     *
+     * @param userID   - User asking for the proof, who must be part of the transaction
+     * @param blockNum - Number of the block
+     * @param index    - Position of the transaction in the block, starting at 0
+     * @return a string with the transaction, its leaf hash, the path to the root and the root
+     */
+    private String transactionProof(String userID, int blockNum, int index) throws IOException, ClassNotFoundException, NoSuchAlgorithmException, ApplicationException {
+        Block logBlock = Block.readFromLog(blockNum);
+
+        if (logBlock == null) {
+            throw new ApplicationException(String.format("Error: Block %d doesn't exist.", blockNum));
+        }
 
-        } catch (NumberFormatException e) {
-            return "Error: Please insert the correct type of arguments!";
-        } catch (ApplicationException e) {
-            return e.getMessage();
+        // Only sealed blocks have a signed merkle root
+        if (logBlock.getMerkleRoot() == null) {
+            throw new ApplicationException(String.format("Error: Block %d is not sealed yet.", blockNum));
         }
+
+        if (index < 0 || index >= logBlock.getTransactions().size()) {
+            throw new ApplicationException(String.format("Error: Block %d has no transaction %d.", blockNum, index));
+        }
+
+        // ["sender", "sent", "value", "to", "receiver"]
+        String transaction = logBlock.getTransactions().get(index);
+        String[] transactionParts = transaction.split(" ");
+        if (!userID.equals(transactionParts[0]) && !userID.equals(transactionParts[4])) {
+            throw new ApplicationException("Error: You can only request proofs of your own transactions.");
+        }
+
+        MerkleTree.Proof proof = logBlock.getTransactionProof(index);
+        if (!proof.verify(logBlock.getMerkleRoot())) {
+            throw new ApplicationException(String.format("Error: Block %d doesn't match its merkle root.", blockNum));
+        }
+        HexFormat hex = HexFormat.of();
+
+        // Everything needed to check the proof without the block: the leaf preimage, the path to the
+        // root and the header with the root, signed by the server
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Inclusion proof of transaction %d in block %d:", index, blockNum));
+        sb.append("\nTransaction: ").append(transaction);
+        sb.append("\nLeaf preimage: ").append(hex.formatHex(MerkleTree.leafPreimage(transaction, logBlock.getTransactionSignedObjects().get(index))));
+        sb.append("\nLeaf: ").append(hex.formatHex(proof.getLeaf()));
+        for (int i = 0; i < proof.getSiblings().size(); i++) {
+            sb.append(proof.isSiblingOnLeft(i) ? "\nLeft: " : "\nRight: ").append(hex.formatHex(proof.getSiblings().get(i)));
+        }
+        sb.append("\nRoot: ").append(hex.formatHex(logBlock.getMerkleRoot()));
+        sb.append("\nHeader: ").append(hex.formatHex(logBlock.getHeader()));
+        sb.append("\nHeader signature: ").append(hex.formatHex(logBlock.getHeaderSignature()));
+
+        return sb.toString();
     }
 
     class ServerThread extends Thread {
         private final Socket socket;
-        private final String keystore;
-        private final String keystorePassword;
 
         private final String cypherPassword;
 
-        ServerThread(Socket inSoc, String keystore, String keystorePassword, String cypherPassword) {
+        private ObjectOutputStream out;
+        private ObjectInputStream in;
+        private String username = "";
+        private SessionRegistry.Session session;
+        private PublicKey pk;
+
+        ServerThread(Socket inSoc, String cypherPassword) {
             socket = inSoc;
-            this.keystore = keystore;
-            this.keystorePassword = keystorePassword;
             this.cypherPassword = cypherPassword;
-            System.out.println("Money Exchange Server Thread Created for client.");
+            Log.debug("connection.accepted", "address", inSoc.getInetAddress().getHostAddress());
         }
 
-        public void run() {
-
-            String username = "";
-
+        /**
+         * Log the client in, or register it. Runs on the handshake pool, before the thread is started.
+         *
+         * @return true if the client is authenticated and the session can start
+         */
+        boolean handshake() {
             try {
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+                // Don't let slow clients hold a handshake thread
+                socket.setSoTimeout(Constants.HANDSHAKE_TIMEOUT_MS);
+
+                out = new ObjectOutputStream(socket.getOutputStream());
+                in = new ObjectInputStream(socket.getInputStream());
+                // Nothing the client sends needs arrays bigger than a certificate
+                in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("maxarray=" + Constants.MAX_CERTIFICATE_BYTES));
 
                 // Get user id
                 username = (String) in.readObject();
 
-                // Check if someone with that user id is active
-                sendStatus(!activeUsers.containsKey(username), out);
-
-                File usersFile = new File(Constants.USERS_FILENAME);
+                // Only registrations are limited per username, logins of registered users only per address
+                if (!certificates.isRegistered(username)) {
+                    long retryAfter = admission.tryAcquireRegistration(username);
+                    if (retryAfter > 0) {
+                        sendRetry(retryAfter, out);
+                        end();
+                        return false;
+                    }
+                }
 
-                // If file doesn't exist, create
-                if (!usersFile.exists()) {
-                    usersFile.createNewFile();
+                // Claim the user's session, unless someone with that user id is active
+                session = sessions.claim(username, socket);
+                if (!sendStatus(session != null, out)) {
+                    end();
+                    return false;
                 }
 
-                Certificate userCertificate = getCertificate(username, usersFile);
-                boolean userExists = userCertificate != null;
+                PublicKey userPublicKey = certificates.getPublicKey(username);
+                boolean userExists = userPublicKey != null;
 
                 // Send bool that represents if user has certificate associated
                 out.writeObject(userExists);
 
-                long nonce = sendNonce(out);
+                byte[] nonce = sendNonce(out);
 
                 // Login path
-                PublicKey pk;
                 if (userExists) {
-                    pk = verifyEncryptedNonce(username, nonce, userCertificate, in, out);
+                    byte[] signedNonce = readSignedNonce(in);
+
+                    // If decrypted nonce is not equal to nonce, leave
+                    if (sendStatus(verifyEncryptedNonce(nonce, signedNonce, userPublicKey), out)) {
+                        pk = userPublicKey;
+                    }
 
                     // Register path
-                } else {
-                    verifyNonce(nonce, in, out);
-                    pk = verifyEncryptedNonce(username, nonce, null, in, out);
-                    storeUserCertificate(username);
-
-                    // Create User
-                    User user = new User(username, Constants.DEFAULT_STARTING_BALANCE);
-
-                    // Save User
-                    synchronized (usersData) {
-                        usersData.addUser(user);
-                        usersData.saveToFile(cypherPassword);
+                } else if (verifyNonce(nonce, in, out)) {
+                    byte[] signedNonce = readSignedNonce(in);
+                    X509Certificate certificate = readCertificate(in);
+
+                    // Certificate is only stored once the user proved to hold its key
+                    boolean valid = certificate != null && verifyEncryptedNonce(nonce, signedNonce, certificate.getPublicKey());
+                    if (valid) {
+                        certificates.register(username, certificate);
+                        pk = certificate.getPublicKey();
+
+                        // Create User
+                        User user = new User(username, Constants.DEFAULT_STARTING_BALANCE);
+
+                        // Save User. Reloaded first, as the loaded users may be part of a published snapshot
+                        synchronized (usersData) {
+                            usersData.getFromFile(cypherPassword);
+                            usersData.addUser(user);
+                            usersData.saveToFile(cypherPassword);
+                            publish();
+                        }
                     }
+                    sendStatus(valid, out);
                 }
 
-                activeUsers.put(username, 0);
+                if (pk == null) {
+                    end();
+                    return false;
+                }
+
+                socket.setSoTimeout(0);
+                Log.info("session.opened", "user", username, "registered", userExists ? "no" : "yes");
+                return true;
 
+            } catch (IOException e) {
+                end();
+                Log.info("session.disconnected", "user", username);
+                return false;
+            } catch (Exception e) {
+                end();
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void run() {
+
+            try {
                 File reqIDFile = new File(Constants.REQ_ID_FILENAME);
 
                 // If file doesn't exist, create
@@ -506,86 +920,176 @@ public class MoneyExchangeServer {
                 }
 
                 MoneyExchangeApp app = new MoneyExchangeApp(username, usersData, groupIDs, qrCodePayments, paymentRequestID);
+                // Runs the read commands, against the latest snapshot
+                CatalogSnapshot initial = snapshot;
+                MoneyExchangeApp reader = new MoneyExchangeApp(username, initial.getUsers(), initial.getGroups(), initial.getQRCodes(), paymentRequestID);
 
                 while (true) {
 
-                    System.out.printf("Starting Transaction for user [%s]%n", username);
                     String clientCommand = ((String) in.readObject()).toLowerCase();
-                    String[] commandParts = clientCommand.split(" ");
+                    // Parsed once, everything below works on the typed command
+                    Command command = Command.parse(clientCommand);
+                    Opcode opcode = command.getOpcode();
+                    session.commandStarted();
+                    long commandStart = System.nanoTime();
 
-                    if (clientCommand.equals("e") || clientCommand.equals("exit"))
+                    if (command.is(Opcode.EXIT) && command.getArgCount() == 0)
                         break;
 
-                    // If correct confirmqurdcode command was sent
-                    if (isValidConfirmQRCode(commandParts)) {
+                    // If correct confirmqrcode command was sent
+                    if (command.is(Opcode.CONFIRM_QR_CODE) && command.isWellFormed()) {
 
-                        QRCodePayment payment = qrCodePayments.getQRCodePayment(Integer.parseInt(commandParts[1]));
+                        QRCodePayment payment = snapshot.getQRCodes().getQRCodePayment(command.intArg(0));
                         if (payment != null) {
-                            out.writeObject(qrCodePayments.getQRCodePayment(Integer.parseInt(commandParts[1])).getCreatorID() + "-" +
-                                    qrCodePayments.getQRCodePayment(Integer.parseInt(commandParts[1])).getAmount());
+                            out.writeObject(payment.getCreatorID() + "-" + Money.format(payment.getAmount()));
                         } else {
                             out.writeObject("null-null");
                         }
-                        System.out.println("Sending additional information");
+                        Log.debug("qrcode.info", "user", username);
                     }
 
-                    boolean isTransaction = isTransaction(commandParts);
+                    boolean isTransaction = command.isTransaction();
                     SignedObject signedObject = null;
                     if (isTransaction) {
 
                         if (in.readObject().equals("valid")) {
-                            System.out.println("Starting sign verification for command " + clientCommand);
                             signedObject = verifySignature(in, out, pk);
+
+                            // Invalid signature ends the session
+                            if (signedObject == null) {
+                                break;
+                            }
                         } else {
-                            System.out.println("Invalid transaction");
+                            Log.info("transaction.invalid", "user", username, "command", opcode.getLongName());
                         }
 
-                    } else {
-                        System.out.println("Not a transaction");
                     }
+                    String cacheKey = cacheKey(command);
+                    String cached = cacheKey == null ? null : reader.getCachedResponse(cacheKey);
                     String response;
-                    synchronized (usersData) {
-                        synchronized (groupIDs) {
-                            synchronized (qrCodePayments) {
-                                // Perform the actual work
-                                System.out.println(Constants.DELIMITER);
-                                System.out.printf("> User [%s] sent command: %s%n", username, clientCommand);
-                                response = action(app, clientCommand, cypherPassword);
-                                System.out.printf(">> Server response to user [%s]%n%s%n", username, response);
-                                System.out.println(Constants.DELIMITER);
-
-                                // Send response
-                                out.writeObject(response);
-
-                                // Save to files
-                                app.save(cypherPassword);
+                    if (isTransaction && signedObject == null) {
+                        // Transactions only run with the client's signature, which goes to the log
+                        response = tryUnsigned(reader, command);
+                        out.writeObject(response);
+
+                    } else if (cached != null) {
+                        // Nothing the response shows changed since it was built
+                        CACHE_HITS.increment();
+                        response = cached;
+                        out.writeObject(response);
+
+                    } else if (opcode == null || !opcode.touchesCatalogs()) {
+                        // Nothing to load, lock or save; the transaction log has its own synchronization
+                        response = action(app, command, cypherPassword);
+                        out.writeObject(response);
+
+                    } else if (opcode.isReadOnly()) {
+                        // The version is read before the snapshot, so a response is never newer than the version it's cached at
+                        long version = reader.getVersion();
+                        reader.view(snapshot);
+                        if (command.isStreamedViewRequests()) {
+                            response = streamRequests(reader);
+                        } else {
+                            response = action(reader, command, cypherPassword);
+                            if (cacheKey != null) {
+                                CACHE_MISSES.increment();
+                                if (!response.startsWith("Error:")) {
+                                    reader.cacheResponse(cacheKey, version, response);
+                                }
                             }
                         }
-                    }
+                        out.writeObject(response);
 
-                    // Add transaction to log block
-                    if (isTransaction && !response.split(" ")[0].equals("Error:")) {
+                    } else {
+                        // Completes once the transaction is in the log, if the command was one
+                        CompletableFuture<Void> logged = null;
+                        long lockRequested = System.nanoTime();
+                        synchronized (usersData) {
+                            synchronized (groupIDs) {
+                                synchronized (qrCodePayments) {
+                                    long lockAcquired = System.nanoTime();
+                                    LOCK_WAIT.record(lockAcquired - lockRequested);
+                                    // Perform the actual work
+                                    response = action(app, command, cypherPassword);
+
+                                    // Published before responding, so the user's next read sees the write
+                                    publish();
+
+                                    // Hand transaction over to the log writer, in the order it changed the catalogs
+                                    if (isTransaction && !response.startsWith("Error:")) {
+                                        logged = logTransaction(username, signedObject);
+                                    }
+
+                                    // Send response, unless it must wait for the transaction to reach the disk
+                                    if (logged == null || !blockLog.isDurable()) {
+                                        out.writeObject(response);
+                                    }
+
+                                    // Save to files
+                                    app.save(cypherPassword);
+                                    LOCK_HOLD.recordSince(lockAcquired);
+                                }
+                            }
+                        }
 
-                        String[] userAndValue = ((String) signedObject.getObject()).split("-");
-                        if (userAndValue.length != 0) {
-                            block.addTransaction(username, userAndValue[1], userAndValue[0], signedObject, keystore, keystorePassword);
+                        // Waited for outside the locks, so other writers share the sync
+                        if (logged != null && blockLog.isDurable()) {
+                            response = awaitLogged(logged, response);
+                            out.writeObject(response);
                         }
+                    }
 
+                    // Logged outside the locks, the response only if payload logging is on
+                    Log.info("command", "user", username, "command", opcode == null ? "unknown" : opcode.getLongName());
+                    if (Log.PAYLOADS) {
+                        Log.debug("command.payload", "user", username, "command", clientCommand, "response", response);
                     }
 
-                    System.out.printf("Ending Transaction for user [%s]%n", username);
+                    (opcode == null ? UNKNOWN_COMMAND_LATENCY : COMMAND_LATENCY[opcode.ordinal()]).recordSince(commandStart);
+                    session.commandFinished();
                 }
-                System.out.println("Closing Client Thread");
-                activeUsers.remove(username);
+                Log.info("session.closed", "user", username);
                 out.close();
                 in.close();
                 socket.close();
 
             } catch (IOException e) {
-                activeUsers.remove(username);
-                System.out.println("Client thread has been killed by client");
+                Log.info("session.disconnected", "user", username);
             } catch (Exception e) {
                 throw new RuntimeException(e);
+            } finally {
+                sessions.release(session);
+            }
+        }
+
+        /**
+         * Send every pending request of the user in chunks, followed by null, so neither side ever
+         * holds more than a chunk. The response that follows only sums up what was sent.
+         *
+         * @return the response to send after the chunks
+         */
+        private String streamRequests(MoneyExchangeApp app) throws IOException {
+            int streamed = app.streamRequests(Constants.VIEW_REQUESTS_CHUNK_SIZE, chunk -> {
+                out.writeObject(chunk);
+                // Don't let the stream keep every chunk it wrote
+                out.reset();
+            });
+            out.writeObject(null);
+
+            return streamed == 0 ? "There are no pending payments." : String.format("Listed %d pending payments.", streamed);
+        }
+
+        /**
+         * Release the session, if claimed, and drop the connection
+         */
+        private void end() {
+            if (session != null) {
+                sessions.release(session);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.warn("socket.close.failed", "user", username);
             }
         }
     }
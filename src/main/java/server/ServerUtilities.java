@@ -1,14 +1,8 @@
 package main.java.server;
 
-import main.java.utils.Constants;
-
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 
 public class ServerUtilities {
 
@@ -27,18 +21,6 @@ public class ServerUtilities {
         }
     }
 
-    /**
-     * Turns a long to an array of bytes
-     *
-     * @param x - Long to be transformed
-     * @return the array of bytes corresponding to the long
-     */
-    static byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(x);
-        return buffer.array();
-    }
-
     /**
      * Writes data to a file
      *
@@ -59,21 +41,4 @@ public class ServerUtilities {
         writer.close();
     }
 
-    /**
-     * Given a username, creates a certificate file for that username
-     *
-     * @param username - Username
-     * @param cert     - Certificate Object
-     * @throws CertificateEncodingException
-     * @throws IOException
-     */
-    static void createCertificateFile(String username, Certificate cert) throws CertificateEncodingException, IOException {
-        byte[] certBytes = cert.getEncoded();
-        String filename = Constants.CERTIFICATES_FOLDER + username + "Certificate.cer";
-        File outputFile = new File(filename);
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
-            outputStream.write(certBytes);
-        }
-    }
-
 }
@@ -0,0 +1,124 @@
+package main.java.server;
+
+import main.java.utils.Log;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Active user sessions. A user can only hold one session at a time.
+ */
+public class SessionRegistry {
+
+    private final ConcurrentMap<String, Session> sessions;
+
+    public SessionRegistry() {
+        this.sessions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Claim the session of a user
+     *
+     * @param username - Username
+     * @param socket   - Connection of the session
+     * @return the new session, or null if the user already has an active one
+     */
+    public Session claim(String username, Socket socket) {
+        Session session = new Session(username, socket);
+        return sessions.putIfAbsent(username, session) == null ? session : null;
+    }
+
+    /**
+     * End a session, leaving any newer session of the same user untouched
+     *
+     * @param session - Session to end
+     */
+    public void release(Session session) {
+        sessions.remove(session.getUsername(), session);
+    }
+
+    public boolean isActive(String username) {
+        return sessions.containsKey(username);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Disconnect sessions that have been idle for too long. Sessions in the middle of a command are kept.
+     *
+     * @param maxIdleMillis - Maximum time since the last command
+     * @return the number of evicted sessions
+     */
+    public int evictIdle(long maxIdleMillis) {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+
+        for (Session session : sessions.values()) {
+            if (session.getInFlight() == 0 && now - session.getLastActivity() > maxIdleMillis) {
+                sessions.remove(session.getUsername(), session);
+                session.close();
+                evicted++;
+            }
+        }
+
+        return evicted;
+    }
+
+    public static class Session {
+
+        private final String username;
+        private final Socket socket;
+        private final long connectTime;
+        private volatile long lastActivity;
+        private final AtomicInteger inFlight;
+
+        Session(String username, Socket socket) {
+            this.username = username;
+            this.socket = socket;
+            this.connectTime = System.currentTimeMillis();
+            this.lastActivity = this.connectTime;
+            this.inFlight = new AtomicInteger();
+        }
+
+        public void commandStarted() {
+            inFlight.incrementAndGet();
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public void commandFinished() {
+            inFlight.decrementAndGet();
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public String getUsername() {
+            return this.username;
+        }
+
+        public long getConnectTime() {
+            return this.connectTime;
+        }
+
+        public long getLastActivity() {
+            return this.lastActivity;
+        }
+
+        public int getInFlight() {
+            return this.inFlight.get();
+        }
+
+        private void close() {
+            try {
+                // Unblocks the session thread, which then ends
+                socket.close();
+            } catch (IOException e) {
+                Log.warn("session.evict.failed", "user", username);
+            }
+        }
+    }
+
+}
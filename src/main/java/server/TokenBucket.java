@@ -0,0 +1,51 @@
+package main.java.server;
+
+/**
+ * Token bucket rate limiter. Holds up to a fixed number of tokens, refilled at a constant rate.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerMilli;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(int capacity, double tokensPerSecond) {
+        this.capacity = capacity;
+        this.tokensPerMilli = tokensPerSecond / 1000;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Take a token, if there's one available
+     *
+     * @return 0 if a token was taken, otherwise the milliseconds until one is available
+     */
+    public synchronized long tryAcquire() {
+        refill();
+
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+
+        return (long) Math.ceil((1 - tokens) / tokensPerMilli);
+    }
+
+    /**
+     * Check if the bucket is full, i.e. it hasn't been used for a while and can be dropped
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+        lastRefill = now;
+    }
+
+}
@@ -0,0 +1,111 @@
+package main.java.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, shared cache of the users' public keys, indexed by username.
+ * Keys are parsed from the users' certificate files the first time they are needed
+ * and kept until evicted (least recently used) or invalidated.
+ */
+public final class CertificateCache {
+
+    private static final Map<String, PublicKey> publicKeys = new LinkedHashMap<String, PublicKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest) {
+            return size() > Constants.CERTIFICATE_CACHE_SIZE;
+        }
+    };
+
+    private CertificateCache() {
+    }
+
+    /**
+     * Get the public key of a user, parsing its certificate file if it isn't cached
+     *
+     * @param username - Username
+     * @return the user's public key or null if the user has no certificate file
+     * @throws IOException
+     * @throws CertificateException
+     */
+    public static PublicKey getPublicKey(String username) throws IOException, CertificateException {
+        return getPublicKey(username, certificateFilename(username));
+    }
+
+    /**
+     * Get the public key of a user, parsing the given certificate file if it isn't cached
+     *
+     * @param username            - Username
+     * @param certificateFilename - Path of the user's certificate file
+     * @return the user's public key or null if the certificate file doesn't exist
+     * @throws IOException
+     * @throws CertificateException
+     */
+    public static PublicKey getPublicKey(String username, String certificateFilename) throws IOException, CertificateException {
+        PublicKey pk;
+        synchronized (publicKeys) {
+            pk = publicKeys.get(username);
+        }
+        if (pk != null) {
+            return pk;
+        }
+
+        // Read and parsed without the lock, so a cold user doesn't hold up every other lookup
+        File certificateFile = new File(certificateFilename);
+        if (!certificateFile.exists()) {
+            return null;
+        }
+
+        try (FileInputStream fis = new FileInputStream(certificateFile)) {
+            CertificateFactory cf = CertificateFactory.getInstance("X509");
+            pk = cf.generateCertificate(fis).getPublicKey();
+        }
+
+        // A key stored meanwhile, e.g. by a registration replacing the certificate, wins
+        synchronized (publicKeys) {
+            PublicKey stored = publicKeys.putIfAbsent(username, pk);
+            return stored != null ? stored : pk;
+        }
+    }
+
+    /**
+     * Store the public key of a freshly written certificate
+     *
+     * @param username - Username
+     * @param cert     - The user's certificate
+     */
+    public static void put(String username, Certificate cert) {
+        synchronized (publicKeys) {
+            publicKeys.put(username, cert.getPublicKey());
+        }
+    }
+
+    /**
+     * Drop the cached public key of a user, e.g. when its certificate is replaced
+     *
+     * @param username - Username
+     */
+    public static void invalidate(String username) {
+        synchronized (publicKeys) {
+            publicKeys.remove(username);
+        }
+    }
+
+    /**
+     * Get the certificate filename of a user
+     *
+     * @param username - Username
+     * @return the path of the user's certificate file
+     */
+    public static String certificateFilename(String username) {
+        return Constants.CERTIFICATES_FOLDER + username + "Certificate.cer";
+    }
+
+}
@@ -0,0 +1,129 @@
+package main.java.utils;
+
+/**
+ * A command line parsed once into its opcode and arguments. Numeric arguments are parsed along
+ * with it, so well-formedness is known up front and handlers read typed values.
+ */
+public final class Command {
+
+    private static final String[] NO_ARGS = new String[0];
+
+    private final String line;
+    private final Opcode opcode;
+    private final String[] args;
+    // Parsed INT and AMOUNT arguments, by position
+    private final long[] values;
+    private final boolean validArity;
+    private final boolean validTypes;
+
+    private Command(String line, Opcode opcode, String[] args, long[] values, boolean validArity, boolean validTypes) {
+        this.line = line;
+        this.opcode = opcode;
+        this.args = args;
+        this.values = values;
+        this.validArity = validArity;
+        this.validTypes = validTypes;
+    }
+
+    /**
+     * Parse a command line, as typed by the user
+     *
+     * @param line - Command name followed by its arguments, separated by spaces
+     * @return the command, whose opcode is null if the name isn't a known command
+     */
+    public static Command parse(String line) {
+        String[] parts = line.split(" ");
+        Opcode opcode = Opcode.byName(parts[0]);
+        String[] args = parts.length > 1 ? new String[parts.length - 1] : NO_ARGS;
+        System.arraycopy(parts, 1, args, 0, args.length);
+
+        if (opcode == null) {
+            return new Command(line, null, args, null, false, false);
+        }
+
+        boolean validArity = args.length >= opcode.getRequiredArgs() && args.length <= opcode.getMaxArgs();
+        if (!validArity) {
+            return new Command(line, opcode, args, null, false, false);
+        }
+
+        long[] values = new long[args.length];
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (opcode.getArgType(i)) {
+                    case INT:
+                        values[i] = Integer.parseInt(args[i]);
+                        break;
+                    case AMOUNT:
+                        values[i] = Money.parse(args[i]);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return new Command(line, opcode, args, values, true, false);
+        }
+        return new Command(line, opcode, args, values, true, true);
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public int getArgCount() {
+        return args.length;
+    }
+
+    public boolean hasValidArity() {
+        return validArity;
+    }
+
+    /**
+     * @return true if the command is known, has a valid number of arguments and each is of the right type
+     */
+    public boolean isWellFormed() {
+        return validTypes;
+    }
+
+    /**
+     * @return true if the command is a well formed transaction, which the client must sign
+     */
+    public boolean isTransaction() {
+        return validTypes && opcode.needsSignature();
+    }
+
+    /**
+     * @return true if the command asks for every payment request, streamed in chunks
+     */
+    public boolean isStreamedViewRequests() {
+        return opcode == Opcode.VIEW_REQUESTS && args.length == 1 && args[0].equals("all");
+    }
+
+    public boolean is(Opcode opcode) {
+        return this.opcode == opcode;
+    }
+
+    public boolean hasArg(int index) {
+        return index < args.length;
+    }
+
+    public String arg(int index) {
+        return args[index];
+    }
+
+    public int intArg(int index) {
+        return (int) values[index];
+    }
+
+    /**
+     * @return the amount argument, in cents
+     */
+    public long amountArg(int index) {
+        return values[index];
+    }
+
+}
@@ -1,9 +1,13 @@
 package main.java.utils;
 
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
 public final class Constants {
 
     public static final int DEFAULT_PORT = 45678;
-    public static final int DEFAULT_STARTING_BALANCE = 100;
+    // In cents
+    public static final long DEFAULT_STARTING_BALANCE = 100 * Money.CENTS_PER_UNIT;
     public static final String INCORRECT_NUM_ARGS_MESSAGE = "Provide a correct number of arguments!";
     public static final String RESOURCES_FOLDER = "./resources/";
     public static final String CERTIFICATES_FOLDER = "./certificates/";
@@ -13,6 +17,42 @@ public final class Constants {
     public static final String SERVER_CERTIFICATE_FILENAME = "certServer.cer";
     public static final String DELIMITER = "----------------------------------------------";
     public static final String PRIVATE_KEY_PROP = "privateKey";
+    public static final int CERTIFICATE_CACHE_SIZE = 1024;
+    public static final int BLOCK_LOG_QUEUE_CAPACITY = 1024;
+    // Transactions whose signatures are checked together at startup, while the next blocks are read
+    public static final int LOG_VERIFY_BATCH_SIZE = 4096;
+    public static final int LEDGER_PAGE_SIZE = 50;
+    // Pending requests per viewrequests page, and per chunk when streaming them all
+    public static final int VIEW_REQUESTS_PAGE_SIZE = 50;
+    public static final int VIEW_REQUESTS_CHUNK_SIZE = 500;
+    // Cached read responses per session
+    public static final int RESPONSE_CACHE_SIZE = 64;
+    public static final long SESSION_IDLE_TIMEOUT_MS = 30 * 60 * 1000;
+    public static final long SESSION_EVICTION_PERIOD_MS = 60 * 1000;
+    // Status sent instead of success/failure when the client must retry later, followed by the wait in ms
+    public static final int RETRY_STATUS = -2;
+    public static final long BUSY_RETRY_AFTER_MS = 1000;
+    public static final int HANDSHAKE_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int HANDSHAKE_QUEUE_CAPACITY = 64;
+    public static final int HANDSHAKE_TIMEOUT_MS = 10 * 1000;
+    public static final int ADDRESS_LOGIN_BURST = 20;
+    public static final double ADDRESS_LOGINS_PER_SECOND = 5;
+    public static final int MAX_CERTIFICATE_BYTES = 16 * 1024;
+    public static final int NONCE_BYTES = 16;
+    public static final long NONCE_TTL_MS = 30 * 1000;
+    public static final int REGISTRATION_BURST = 3;
+    public static final double REGISTRATIONS_PER_SECOND = 0.2;
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    // Either "enqueue" or "fsync"
+    public static final String BLOCK_LOG_DURABILITY_PROP = "moneyexchange.blocklog.durability";
+    public static final String METRICS_FILENAME = "./metrics.txt";
+    public static final long METRICS_DUMP_PERIOD_MS = 10 * 1000;
+    public static final String LOG_LEVEL_PROP = "moneyexchange.log.level";
+    public static final String LOG_PAYLOADS_PROP = "moneyexchange.log.payloads";
+    // Must be a power of two
+    public static final int LOG_BUFFER_SIZE = 8192;
+    public static final long LOG_IDLE_WAIT_NS = 1000 * 1000;
+    public static final long LOG_SHUTDOWN_WAIT_NS = 2000L * 1000 * 1000;
 
     private Constants() {
     }
@@ -0,0 +1,272 @@
+package main.java.utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Map from primitive int keys to objects, with open addressing and linear probing. Keys are never
+ * boxed and there's no entry object per mapping, only a key and a value array. Null values aren't
+ * allowed, as a null value marks a free slot. Iteration order is unspecified. Not thread safe.
+ *
+ * @param <V> - Type of the values
+ */
+public class IntHashMap<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private transient int[] keys;
+    private transient Object[] values;
+    private transient int size;
+    private transient int mask;
+    // Structural changes, so iterators can fail fast
+    private transient int modifications;
+
+    public IntHashMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * @param expectedSize - Number of mappings to hold without resizing
+     */
+    public IntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return values[slotOf(key)] != null;
+    }
+
+    /**
+     * Get the value mapped to a key
+     *
+     * @param key - Key
+     * @return the value or null if the key isn't mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slotOf(key)];
+    }
+
+    /**
+     * Map a key to a value, replacing any previous value
+     *
+     * @param key   - Key
+     * @param value - Value, not null
+     * @return the previous value or null if the key wasn't mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Error: IntHashMap doesn't allow null values.");
+        }
+
+        int slot = slotOf(key);
+        V previous = (V) values[slot];
+        if (previous == null) {
+            keys[slot] = key;
+            size++;
+            modifications++;
+        }
+        values[slot] = value;
+
+        // Keep the table at most two thirds full, so probe sequences stay short
+        if (previous == null && size * 3 > keys.length * 2) {
+            resize(keys.length * 2);
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the mapping of a key
+     *
+     * @param key - Key
+     * @return the removed value or null if the key wasn't mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = slotOf(key);
+        V previous = (V) values[slot];
+        if (previous == null) {
+            return null;
+        }
+
+        // Shift back the entries that probed past the removed one, so lookups never need tombstones
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(keys[next]) & mask;
+            // Move the entry unless its home slot lies cyclically between the free slot and itself
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[free] = null;
+
+        size--;
+        modifications++;
+        return previous;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        modifications++;
+    }
+
+    /**
+     * Get the mapped keys
+     *
+     * @return a new array with every key, in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                result[count++] = keys[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the mapped values, as a read-only view backed by the map
+     *
+     * @return the values, in no particular order
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Slot holding the key, or the free slot where it would be inserted
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Ids are mostly sequential, so spread them before masking
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 2 < expectedSize * 3) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null) {
+                int newSlot = slotOf(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                out.writeInt(keys[slot]);
+                out.writeObject(values[slot]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Error: Invalid IntHashMap size " + count + ".");
+        }
+
+        allocate(capacityFor(count));
+        for (int i = 0; i < count; i++) {
+            int key = in.readInt();
+            put(key, (V) in.readObject());
+        }
+    }
+
+    private class ValueIterator implements Iterator<V> {
+
+        private final int expectedModifications = modifications;
+        private int slot = advance(0);
+
+        @Override
+        public boolean hasNext() {
+            return slot < values.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (modifications != expectedModifications) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            V value = (V) values[slot];
+            slot = advance(slot + 1);
+            return value;
+        }
+
+        private int advance(int from) {
+            while (from < values.length && values[from] == null) {
+                from++;
+            }
+            return from;
+        }
+    }
+
+}
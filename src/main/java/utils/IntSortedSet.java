@@ -0,0 +1,103 @@
+package main.java.utils;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive int keys, kept in ascending order in a single array so the keys after a cursor
+ * are found by binary search. Adding a key greater than every other one, as with newly allocated
+ * ids, takes amortized constant time; other adds and removes shift the greater keys along.
+ * Not thread safe.
+ */
+public class IntSortedSet {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private int size;
+
+    public IntSortedSet() {
+        keys = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * @param keys - Keys of the set, in any order and without duplicates. Not kept by the set
+     */
+    public IntSortedSet(int[] keys) {
+        this.keys = Arrays.copyOf(keys, Math.max(keys.length, MIN_CAPACITY));
+        this.size = keys.length;
+        Arrays.sort(this.keys, 0, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int key) {
+        return Arrays.binarySearch(keys, 0, size, key) >= 0;
+    }
+
+    /**
+     * Add a key
+     *
+     * @param key - Key
+     * @return true if the key wasn't in the set
+     */
+    public boolean add(int key) {
+        // Most keys are new ids, greater than every key in the set
+        int index = size > 0 && keys[size - 1] < key ? size : Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0 && index < size) {
+            return false;
+        }
+
+        int insertAt = index == size ? size : -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+        keys[insertAt] = key;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove a key
+     *
+     * @param key - Key
+     * @return true if the key was in the set
+     */
+    public boolean remove(int key) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            return false;
+        }
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Get the smallest keys greater than a cursor. Takes time logarithmic in the size of the set,
+     * plus the keys returned.
+     *
+     * @param after - Cursor, only greater keys are returned
+     * @param limit - Maximum number of keys to return
+     * @return a new array with at most limit keys, in ascending order
+     */
+    public int[] keysAfter(int after, int limit) {
+        int from = Arrays.binarySearch(keys, 0, size, after);
+        // Found keys are skipped, missing ones give the index of the first greater key
+        from = from >= 0 ? from + 1 : -from - 1;
+        return Arrays.copyOfRange(keys, from, from + Math.min(limit, size - from));
+    }
+
+    /**
+     * Get every key
+     *
+     * @return a new array with every key, in ascending order
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(keys, size);
+    }
+
+}
@@ -0,0 +1,278 @@
+package main.java.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logger. Logging threads only fill a preallocated slot of a ring buffer
+ * with an event name and up to three key/value fields; a background thread formats and writes them.
+ * Numeric values have their own overloads, kept in the slot as primitives so they are never boxed.
+ * A caller never waits on log output: when the buffer is full the event is dropped and counted.
+ * <p>
+ * The level is set with -Dmoneyexchange.log.level (DEBUG, INFO, WARN, ERROR; INFO by default).
+ * Request and response bodies are only logged with -Dmoneyexchange.log.payloads=true.
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    public static final boolean PAYLOADS = Boolean.getBoolean(Constants.LOG_PAYLOADS_PROP);
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty(Constants.LOG_LEVEL_PROP, "INFO").toUpperCase());
+
+    private static final Event[] ring = new Event[Constants.LOG_BUFFER_SIZE];
+    private static final int mask = Constants.LOG_BUFFER_SIZE - 1;
+    // Next sequence to claim, and next sequence the writer will consume
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final AtomicLong consumed = new AtomicLong();
+    private static final LongAdder dropped = new LongAdder();
+    // Value of a field whose value is in the slot's number for it
+    private static final Object NUMBER = new Object();
+
+    static {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Event();
+        }
+        Metrics.gauge("log.dropped", dropped::sum);
+        Metrics.gauge("log.pending", () -> claimed.get() - consumed.get());
+
+        Thread writer = new Thread(Log::write, "LogWriter");
+        writer.setDaemon(true);
+        writer.start();
+        // Write out what is still buffered when the server stops
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::awaitDrained));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static void debug(String event) {
+        log(Level.DEBUG, event, null, null, null, null, null, null);
+    }
+
+    public static void debug(String event, String key, Object value) {
+        log(Level.DEBUG, event, key, value, null, null, null, null);
+    }
+
+    public static void debug(String event, String key1, Object value1, String key2, Object value2) {
+        log(Level.DEBUG, event, key1, value1, key2, value2, null, null);
+    }
+
+    public static void debug(String event, String key1, Object value1, String key2, Object value2, String key3, Object value3) {
+        log(Level.DEBUG, event, key1, value1, key2, value2, key3, value3);
+    }
+
+    public static void debug(String event, String key, long value) {
+        log(Level.DEBUG, event, key, value, null, 0, null, 0);
+    }
+
+    public static void info(String event) {
+        log(Level.INFO, event, null, null, null, null, null, null);
+    }
+
+    public static void info(String event, String key, Object value) {
+        log(Level.INFO, event, key, value, null, null, null, null);
+    }
+
+    public static void info(String event, String key1, Object value1, String key2, Object value2) {
+        log(Level.INFO, event, key1, value1, key2, value2, null, null);
+    }
+
+    public static void info(String event, String key1, Object value1, String key2, Object value2, String key3, Object value3) {
+        log(Level.INFO, event, key1, value1, key2, value2, key3, value3);
+    }
+
+    public static void info(String event, String key, long value) {
+        log(Level.INFO, event, key, value, null, 0, null, 0);
+    }
+
+    public static void info(String event, String key1, long value1, String key2, long value2, String key3, long value3) {
+        log(Level.INFO, event, key1, value1, key2, value2, key3, value3);
+    }
+
+    public static void warn(String event, String key, Object value) {
+        log(Level.WARN, event, key, value, null, null, null, null);
+    }
+
+    public static void warn(String event, String key1, Object value1, String key2, Object value2) {
+        log(Level.WARN, event, key1, value1, key2, value2, null, null);
+    }
+
+    public static void warn(String event, String key, long value) {
+        log(Level.WARN, event, key, value, null, 0, null, 0);
+    }
+
+    public static void error(String event, String key, Object value) {
+        log(Level.ERROR, event, key, value, null, null, null, null);
+    }
+
+    public static void error(String event, String key1, Object value1, String key2, Object value2) {
+        log(Level.ERROR, event, key1, value1, key2, value2, null, null);
+    }
+
+    private static void log(Level level, String event, String key1, Object value1, String key2, Object value2, String key3, Object value3) {
+        long sequence = claim(level);
+        if (sequence < 0) {
+            return;
+        }
+
+        Event slot = fill(sequence, level, event);
+        slot.key1 = key1;
+        slot.value1 = value1;
+        slot.key2 = key2;
+        slot.value2 = value2;
+        slot.key3 = key3;
+        slot.value3 = value3;
+        // Publish, the writer only reads the slot once it sees its sequence
+        slot.sequence = sequence;
+    }
+
+    private static void log(Level level, String event, String key1, long value1, String key2, long value2, String key3, long value3) {
+        long sequence = claim(level);
+        if (sequence < 0) {
+            return;
+        }
+
+        Event slot = fill(sequence, level, event);
+        slot.key1 = key1;
+        slot.value1 = NUMBER;
+        slot.number1 = value1;
+        slot.key2 = key2;
+        slot.value2 = NUMBER;
+        slot.number2 = value2;
+        slot.key3 = key3;
+        slot.value3 = NUMBER;
+        slot.number3 = value3;
+        // Publish, the writer only reads the slot once it sees its sequence
+        slot.sequence = sequence;
+    }
+
+    // Claim a slot, unless the level is off or the writer is a whole buffer behind. Returns its sequence, or -1
+    private static long claim(Level level) {
+        if (!isEnabled(level)) {
+            return -1;
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= ring.length) {
+                dropped.increment();
+                return -1;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    private static Event fill(long sequence, Level level, String event) {
+        Event slot = ring[(int) (sequence & mask)];
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.thread = Thread.currentThread().getName();
+        slot.event = event;
+        return slot;
+    }
+
+    private static void write() {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        StringBuilder line = new StringBuilder(256);
+        long next = consumed.get();
+
+        while (true) {
+            Event slot = ring[(int) (next & mask)];
+            if (slot.sequence != next) {
+                // Nothing published yet, flush what we have and wait
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    // Nowhere left to report it
+                }
+                LockSupport.parkNanos(Constants.LOG_IDLE_WAIT_NS);
+                continue;
+            }
+
+            line.setLength(0);
+            line.append(Constants.DATE_FORMATTER.format(Instant.ofEpochMilli(slot.time)))
+                    .append(' ').append(slot.level)
+                    .append(" [").append(slot.thread).append("] ")
+                    .append(slot.event);
+            appendField(line, slot.key1, slot.value1, slot.number1);
+            appendField(line, slot.key2, slot.value2, slot.number2);
+            appendField(line, slot.key3, slot.value3, slot.number3);
+            line.append('\n');
+
+            // Don't keep payloads alive until the slot is reused
+            slot.value1 = null;
+            slot.value2 = null;
+            slot.value3 = null;
+
+            try {
+                out.append(line);
+            } catch (IOException e) {
+                // Nowhere left to report it
+            }
+
+            // Hand the slot back to the loggers
+            next++;
+            consumed.lazySet(next);
+        }
+    }
+
+    private static void appendField(StringBuilder line, String key, Object value, long number) {
+        if (key == null) {
+            return;
+        }
+        line.append(' ').append(key).append('=');
+        if (value == NUMBER) {
+            line.append(number);
+            return;
+        }
+        String text = String.valueOf(value);
+        // Quote values that would otherwise be ambiguous
+        if (text.indexOf(' ') >= 0 || text.indexOf('\n') >= 0 || text.isEmpty()) {
+            line.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        } else {
+            line.append(text);
+        }
+    }
+
+    private static void awaitDrained() {
+        long deadline = System.nanoTime() + Constants.LOG_SHUTDOWN_WAIT_NS;
+        while (consumed.get() < claimed.get() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(Constants.LOG_IDLE_WAIT_NS);
+        }
+        // Give the writer a moment to flush the last lines
+        LockSupport.parkNanos(Constants.LOG_IDLE_WAIT_NS * 2);
+    }
+
+    private static class Event {
+        private volatile long sequence = -1;
+        private long time;
+        private Level level;
+        private String thread;
+        private String event;
+        private String key1;
+        private Object value1;
+        private long number1;
+        private String key2;
+        private Object value2;
+        private long number2;
+        private String key3;
+        private Object value3;
+        private long number3;
+    }
+
+}
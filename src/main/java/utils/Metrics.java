@@ -0,0 +1,85 @@
+package main.java.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server metrics: counters, gauges sampled when reported, and latency histograms. Metrics are
+ * created on first use; hot paths should keep a reference instead of looking them up every time.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name
+     *
+     * @param name  - Gauge name
+     * @param value - Supplier of the current value, called when metrics are reported
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Get every metric as text, one per line, sorted by name. Latencies are in milliseconds.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Metrics at ").append(Constants.DATE_FORMATTER.format(Instant.now())).append('\n');
+
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            sb.append(String.format("counter   %-36s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            sb.append(String.format("gauge     %-36s %d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            sb.append(String.format("histogram %-36s count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the report to a file, replacing it in one go so readers never see a partial report
+     *
+     * @param filename - File to write
+     */
+    public static void dump(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        Path temporaryPath = Paths.get(filename + ".tmp");
+        Files.write(temporaryPath, report().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,106 @@
+package main.java.utils;
+
+/**
+ * Money amounts are longs holding cents, so arithmetic is exact and needs no allocation.
+ * This class converts them from and to the text users type and read.
+ */
+public final class Money {
+
+    public static final int CENTS_PER_UNIT = 100;
+    private static final int DECIMALS = 2;
+
+    private Money() {
+    }
+
+    /**
+     * Parse an amount typed by a user
+     *
+     * @param amount - Amount with at most two decimal places, like 12, 12.5 or 12.50
+     * @return the amount in cents
+     * @throws NumberFormatException if the amount is not a number, has more than two decimal places or overflows
+     */
+    public static long parse(String amount) {
+        int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+
+        long cents = 0;
+        int digits = 0;
+        int decimals = -1;
+        try {
+            for (; i < length; i++) {
+                char c = amount.charAt(i);
+                if (c == '.' && decimals < 0) {
+                    decimals = 0;
+                } else if (c >= '0' && c <= '9') {
+                    if (decimals >= 0 && ++decimals > DECIMALS) {
+                        throw new NumberFormatException("Too many decimal places: " + amount);
+                    }
+                    cents = Math.addExact(Math.multiplyExact(cents, 10), c - '0');
+                    digits++;
+                } else {
+                    throw new NumberFormatException("Not an amount: " + amount);
+                }
+            }
+            if (digits == 0) {
+                throw new NumberFormatException("Not an amount: " + amount);
+            }
+
+            // Scale what was read to cents
+            for (int scale = Math.max(decimals, 0); scale < DECIMALS; scale++) {
+                cents = Math.multiplyExact(cents, 10);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + amount);
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Format an amount with two decimal places
+     *
+     * @param cents - Amount in cents
+     * @return the amount, like 12.50
+     */
+    public static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Append an amount with two decimal places, without creating an intermediate string
+     *
+     * @param sb    - Builder to append to
+     * @param cents - Amount in cents
+     * @return the builder
+     */
+    public static StringBuilder append(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+        }
+        long units = Math.abs(cents / CENTS_PER_UNIT);
+        int fraction = (int) Math.abs(cents % CENTS_PER_UNIT);
+        sb.append(units).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    /**
+     * Get one share of an amount split in equal parts. The remainder cents go to the first shares,
+     * so the shares always add up to the amount.
+     *
+     * @param total - Amount in cents
+     * @param parts - Number of shares
+     * @param index - Share, from 0 to parts - 1
+     * @return the share in cents
+     */
+    public static long share(long total, int parts, int index) {
+        return total / parts + (index < total % parts ? 1 : 0);
+    }
+
+}
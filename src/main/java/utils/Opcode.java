@@ -0,0 +1,147 @@
+package main.java.utils;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every command a client can send, with its short and long names, its arguments and what running
+ * it involves: whether it changes any state, whether the client must sign it as a transaction,
+ * and which parts of the server state it reads or writes.
+ */
+public enum Opcode {
+
+    BALANCE("b", "balance", true, false, 0, new ArgType[]{}, Partition.USERS),
+    MAKE_PAYMENT("m", "makepayment", false, true, 2, new ArgType[]{ArgType.TEXT, ArgType.AMOUNT}, Partition.USERS, Partition.BLOCK_LOG),
+    REQUEST_PAYMENT("r", "requestpayment", false, false, 2, new ArgType[]{ArgType.TEXT, ArgType.AMOUNT}, Partition.USERS, Partition.REQUEST_IDS),
+    // Optional cursor, or "all" to stream every request
+    VIEW_REQUESTS("v", "viewrequests", true, false, 0, new ArgType[]{ArgType.TEXT}, Partition.USERS),
+    PAY_REQUEST("p", "payrequest", false, true, 1, new ArgType[]{ArgType.INT}, Partition.USERS, Partition.GROUPS, Partition.BLOCK_LOG),
+    OBTAIN_QR_CODE("o", "obtainqrcode", false, false, 1, new ArgType[]{ArgType.AMOUNT}, Partition.QR_CODES, Partition.REQUEST_IDS),
+    CONFIRM_QR_CODE("c", "confirmqrcode", false, true, 1, new ArgType[]{ArgType.INT}, Partition.USERS, Partition.QR_CODES, Partition.BLOCK_LOG),
+    NEW_GROUP("n", "newgroup", false, false, 1, new ArgType[]{ArgType.INT}, Partition.USERS, Partition.GROUPS),
+    ADD_USER("a", "addu", false, false, 2, new ArgType[]{ArgType.TEXT, ArgType.INT}, Partition.USERS, Partition.GROUPS),
+    GROUPS("g", "groups", true, false, 0, new ArgType[]{}, Partition.USERS, Partition.GROUPS),
+    DIVIDE_PAYMENT("d", "dividepayment", false, false, 2, new ArgType[]{ArgType.INT, ArgType.AMOUNT}, Partition.USERS, Partition.GROUPS, Partition.REQUEST_IDS),
+    STATUS_PAYMENTS("s", "statuspayments", true, false, 1, new ArgType[]{ArgType.INT}, Partition.USERS, Partition.GROUPS),
+    HISTORY("h", "history", true, false, 1, new ArgType[]{ArgType.INT}, Partition.USERS, Partition.GROUPS),
+    // Optional page number
+    LEDGER("l", "ledger", true, false, 0, new ArgType[]{ArgType.INT}, Partition.BLOCK_LOG),
+    TX_PROOF("t", "txproof", true, false, 2, new ArgType[]{ArgType.INT, ArgType.INT}, Partition.BLOCK_LOG),
+    // Dates as yyyy-MM-dd, the end date defaults to the start date
+    FIND_BLOCKS("f", "findblocks", true, false, 1, new ArgType[]{ArgType.TEXT, ArgType.TEXT}, Partition.BLOCK_LOG),
+    EXIT("e", "exit", true, false, 0, new ArgType[]{});
+
+    /**
+     * Types of command arguments
+     */
+    public enum ArgType {
+        TEXT, INT, AMOUNT
+    }
+
+    /**
+     * Parts of the server state a command can touch
+     */
+    public enum Partition {
+        // Catalogs
+        USERS, GROUPS, QR_CODES,
+        // Request id counter file
+        REQUEST_IDS,
+        // Transaction log and its index
+        BLOCK_LOG;
+
+        public boolean isCatalog() {
+            return this != BLOCK_LOG;
+        }
+    }
+
+    // Short and long names -> opcode
+    private static final Map<String, Opcode> BY_NAME = new HashMap<>();
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_NAME.put(opcode.shortName, opcode);
+            BY_NAME.put(opcode.longName, opcode);
+        }
+    }
+
+    private final String shortName;
+    private final String longName;
+    private final boolean readOnly;
+    private final boolean needsSignature;
+    private final int requiredArgs;
+    private final ArgType[] args;
+    private final Set<Partition> partitions;
+    private final boolean touchesCatalogs;
+
+    Opcode(String shortName, String longName, boolean readOnly, boolean needsSignature, int requiredArgs, ArgType[] args, Partition... partitions) {
+        this.shortName = shortName;
+        this.longName = longName;
+        this.readOnly = readOnly;
+        this.needsSignature = needsSignature;
+        this.requiredArgs = requiredArgs;
+        this.args = args;
+        EnumSet<Partition> set = EnumSet.noneOf(Partition.class);
+        Collections.addAll(set, partitions);
+        this.partitions = Collections.unmodifiableSet(set);
+        this.touchesCatalogs = set.stream().anyMatch(Partition::isCatalog);
+    }
+
+    /**
+     * Find a command by its short or long name
+     *
+     * @param name - Command name, in lower case
+     * @return the opcode or null if there's no such command
+     */
+    public static Opcode byName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+
+    public String getLongName() {
+        return longName;
+    }
+
+    /**
+     * @return true if the command never changes any state, so nothing needs saving after it
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return true if the client must sign the command as a transaction
+     */
+    public boolean needsSignature() {
+        return needsSignature;
+    }
+
+    public int getRequiredArgs() {
+        return requiredArgs;
+    }
+
+    public int getMaxArgs() {
+        return args.length;
+    }
+
+    public ArgType getArgType(int index) {
+        return args[index];
+    }
+
+    public Set<Partition> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return true if the command reads or writes any catalog, so it needs them loaded and locked
+     */
+    public boolean touchesCatalogs() {
+        return touchesCatalogs;
+    }
+
+}
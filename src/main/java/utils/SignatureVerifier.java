@@ -0,0 +1,121 @@
+package main.java.utils;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Verifies SHA256withRSA signatures, reusing one Signature engine per thread.
+ * Bulk verification is split across every available core.
+ */
+public final class SignatureVerifier {
+
+    private static final String ALGORITHM = "SHA256withRSA";
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ThreadLocal<Signature> engines = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "SignatureVerifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SignatureVerifier() {
+    }
+
+    /**
+     * Verify a signed object
+     *
+     * @param signedObject - Object signed by its creator
+     * @param pk           - The creator's public key
+     * @return true if the signature is valid
+     */
+    public static boolean verify(SignedObject signedObject, PublicKey pk) throws InvalidKeyException, SignatureException {
+        return signedObject.verify(pk, engines.get());
+    }
+
+    /**
+     * Verify the signature of raw data
+     *
+     * @param data      - Signed data
+     * @param signature - Signature to check
+     * @param pk        - The signer's public key
+     * @return true if the signature is valid
+     */
+    public static boolean verify(byte[] data, byte[] signature, PublicKey pk) throws InvalidKeyException, SignatureException {
+        Signature s = engines.get();
+        s.initVerify(pk);
+        s.update(data);
+        return s.verify(signature);
+    }
+
+    /**
+     * Verify many signed objects in parallel
+     *
+     * @param signedObjects - Objects to verify
+     * @param keys          - Public key of each object's creator, null if unknown
+     * @return the positions of the objects that failed verification, in order
+     */
+    public static List<Integer> verifyAll(List<SignedObject> signedObjects, List<PublicKey> keys) throws InterruptedException {
+        try {
+            return submitAll(signedObjects, keys).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Start verifying many signed objects in parallel, without waiting for them. The lists must not
+     * change until the result is ready.
+     *
+     * @param signedObjects - Objects to verify
+     * @param keys          - Public key of each object's creator, null if unknown
+     * @return completes with the positions of the objects that failed verification, in order
+     */
+    public static CompletableFuture<List<Integer>> submitAll(List<SignedObject> signedObjects, List<PublicKey> keys) {
+        int size = signedObjects.size();
+        int chunkSize = Math.max(1, (size + THREADS - 1) / THREADS);
+
+        List<CompletableFuture<List<Integer>>> chunks = new ArrayList<>();
+        for (int start = 0; start < size; start += chunkSize) {
+            int chunkStart = start;
+            int chunkEnd = Math.min(size, start + chunkSize);
+            chunks.add(CompletableFuture.supplyAsync(() -> verifyRange(signedObjects, keys, chunkStart, chunkEnd), pool));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Integer> failures = new ArrayList<>();
+            for (CompletableFuture<List<Integer>> chunk : chunks) {
+                failures.addAll(chunk.join());
+            }
+            return failures;
+        });
+    }
+
+    private static List<Integer> verifyRange(List<SignedObject> signedObjects, List<PublicKey> keys, int start, int end) {
+        List<Integer> failures = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            PublicKey pk = keys.get(i);
+            try {
+                if (pk == null || !verify(signedObjects.get(i), pk)) {
+                    failures.add(i);
+                }
+            } catch (InvalidKeyException | SignatureException e) {
+                failures.add(i);
+            }
+        }
+        return failures;
+    }
+
+}